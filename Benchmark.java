@@ -0,0 +1,668 @@
+/**
+ * Measures the hot paths of the RadioInfo program:
+ * parsing channels and schedules, creating episodes,
+ * filtering them and filling the episode table. The
+ * results are printed as JSON so runs can be compared
+ * over time.
+ *
+ * java Benchmark [fixture directory] [-o results.json]
+ *
+ * The fixture directory may hold channels.xml and
+ * scheduledepisodes.xml recorded from Sveriges radio, or
+ * be a directory that RecordingTransport saved to. Without
+ * it, synthetic answers are used. When there are several
+ * recorded schedules, parsing all of them is measured too.
+ * A large synthetic schedule is always measured as well.
+ *
+ * To record fixtures, run the program once against
+ * Sveriges radio with the property radioinfo.record,
+ * and click through the channels that should be kept:
+ *
+ * java -Dradioinfo.record=fixtures Main
+ * java Benchmark fixtures
+ *
+ * Searching is measured over a week of schedules for
+ * every channel, one key press at a time.
+ *
+ * The heap footprint of every channel's schedule over
+ * three days is also measured. Run once more with
+ * -Dradioinfo.textPool=0 to compare with episodes that
+ * do not share their texts.
+ *
+ * Filtering and the heap footprint of 100,000 episodes
+ * are measured both with the episode times kept as epoch
+ * milliseconds and the way it was done before, with the
+ * times kept as formatted strings that are parsed again
+ * on every filtering.
+ *
+ * What is on air on 2,000 channels, and what is on within
+ * a window, is looked up both in the ScheduleIndex and
+ * with a linear scan of every channel's episodes.
+ *
+ * The ScheduleServer is load tested with 1 and 32 clients
+ * asking for the schedules of 50 channels, from a Model that
+ * fetches from a local ReplayServer, and the latencies
+ * are reported as p50 and p99.
+ *
+ * Filling the episode table is measured both with the
+ * EpisodeTableModel and the way it was done before, one
+ * addRow at a time on a DefaultTableModel. That work is
+ * what the Event Dispatch Thread does when a schedule
+ * is shown. Showing a schedule in batches while it is
+ * read is measured both merging each batch and sorting
+ * and comparing everything shown so far for every batch.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * -------------------- Benchmark class --------------------
+ */
+public class Benchmark {
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+
+    private static volatile Object sink;
+
+    private final List<String> results = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        Path fixtures = null;
+        Path output = null;
+        for(int i = 0; i < args.length; i++) {
+            if(args[i].equals("-o") && i + 1 < args.length) {
+                output = Path.of(args[++i]);
+            } else {
+                fixtures = Path.of(args[i]);
+            }
+        }
+
+        byte[] channels = read(fixtures, "channels", SyntheticData.channels(50));
+        byte[] schedule = read(fixtures, "scheduledepisodes",
+                SyntheticData.schedule("132", LocalDate.now(), 40));
+        List<byte[]> recordedSchedules = readAll(fixtures, "scheduledepisodes");
+        byte[] largeSchedule = SyntheticData.schedule("132", LocalDate.now(), 5000);
+
+        ArrayList<Episode> threeDays = new ArrayList<>();
+        for(int day = -1; day <= 1; day++) {
+            threeDays.addAll(StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                    SyntheticData.schedule("132", LocalDate.now().plusDays(day), 40))));
+        }
+        ArrayList<Episode> thousandRows = StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                SyntheticData.schedule("132", LocalDate.now(), 1000)));
+        ArrayList<Episode> tenThousandRows = StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                SyntheticData.schedule("132", LocalDate.now(), 10000)));
+
+        ArrayList<Episode> hundredThousand = new ArrayList<>();
+        for(int day = -10; day < 10; day++) {
+            hundredThousand.addAll(StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                    SyntheticData.schedule("132", LocalDate.now().plusDays(day), 5000))));
+        }
+        List<StringEpisode> hundredThousandStrings = StringEpisode.of(hundredThousand);
+
+        // The benchmark must never write to the archive in the home directory.
+        System.setProperty("radioinfo.archive", "off");
+        Model model = new Model();
+        Benchmark benchmark = new Benchmark();
+        benchmark.footprint("heap.allChannels.threeDays", () -> {
+            List<Episode> all = new ArrayList<>();
+            for(Channel channel : StreamingParser.parseChannels(new ByteArrayInputStream(channels))) {
+                for(int day = -1; day <= 1; day++) {
+                    all.addAll(StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                            SyntheticData.schedule(channel.getId(), LocalDate.now().plusDays(day), 40))));
+                }
+            }
+            return all;
+        });
+        benchmark.footprint("heap.episodes100k", () -> copyEpisodes(hundredThousand));
+        benchmark.footprint("heap.episodes100k.strings", () -> StringEpisode.of(hundredThousand));
+        benchmark.run("channels.stax", () -> StreamingParser.parseChannels(new ByteArrayInputStream(channels)));
+        benchmark.run("channels.dom", () -> Model.parseChannelsDOM(new ByteArrayInputStream(channels)));
+        benchmark.run("schedule.stax", () -> StreamingParser.parseEpisodes(new ByteArrayInputStream(schedule)));
+        benchmark.run("schedule.dom", () -> Model.parseEpisodesDOM(new ByteArrayInputStream(schedule)));
+        if(recordedSchedules.size() > 1) {
+            benchmark.run("schedule.recorded.stax", () -> {
+                int episodes = 0;
+                for(byte[] recorded : recordedSchedules) {
+                    episodes += StreamingParser.parseEpisodes(new ByteArrayInputStream(recorded)).size();
+                }
+                return episodes;
+            });
+            benchmark.run("schedule.recorded.dom", () -> {
+                int episodes = 0;
+                for(byte[] recorded : recordedSchedules) {
+                    episodes += Model.parseEpisodesDOM(new ByteArrayInputStream(recorded)).size();
+                }
+                return episodes;
+            });
+        }
+        benchmark.run("schedule.large.stax", () -> StreamingParser.parseEpisodes(new ByteArrayInputStream(largeSchedule)));
+        benchmark.run("schedule.large.dom", () -> Model.parseEpisodesDOM(new ByteArrayInputStream(largeSchedule)));
+        benchmark.run("schedule.large.firstBatch", () -> {
+            List<Episode> batch = new ArrayList<>();
+            StreamingParser.parseEpisodesUntil(new ByteArrayInputStream(largeSchedule), episode -> {
+                batch.add(episode);
+                return batch.size() < 50;
+            });
+            return batch;
+        });
+        benchmark.run("episode.create", () -> new Episode("Beskrivning", "Ekot",
+                "2025-01-26T05:00:00Z", "2025-01-26T05:10:00Z", "https://static-cdn.sr.se/images/1.jpg"));
+        benchmark.run("episode.format", () -> threeDays.get(0).getStartTime());
+        benchmark.run("filter.threeDays", () -> model.filterEpisodes(threeDays));
+        benchmark.run("filter.100k", () -> model.filterEpisodes(hundredThousand));
+        benchmark.run("filter.100k.reparse", () -> StringEpisode.filter(hundredThousandStrings));
+
+        SearchIndex searchIndex = new SearchIndex();
+        for(Channel channel : StreamingParser.parseChannels(new ByteArrayInputStream(channels))) {
+            for(int day = -3; day <= 3; day++) {
+                LocalDate date = LocalDate.now().plusDays(day);
+                searchIndex.update(channel.getId(), date, StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                        SyntheticData.schedule(channel.getId(), date, 40))));
+            }
+        }
+        String typed = "sommar i p1 avsnitt 3";
+        int[] typedLength = {0};
+        benchmark.run("search.asYouType", () -> {
+            typedLength[0] = typedLength[0] % typed.length() + 1;
+            return searchIndex.search(typed.substring(0, typedLength[0]), 20);
+        });
+
+        ScheduleIndex scheduleIndex = new ScheduleIndex();
+        Map<String, List<Episode>> schedules = new HashMap<>();
+        for(int i = 0; i < 2000; i++) {
+            String id = SyntheticData.channelId(i);
+            List<Episode> episodes = new ArrayList<>();
+            for(int day = -1; day <= 1; day++) {
+                episodes.addAll(StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                        SyntheticData.schedule(id, LocalDate.now().plusDays(day), 40))));
+            }
+            scheduleIndex.update(id, episodes);
+            schedules.put(id, episodes);
+        }
+        long hour = 3_600_000L;
+        long[] queryTime = {System.currentTimeMillis()};
+        benchmark.run("index.onAir2000", () -> scheduleIndex.onAir(nextQueryTime(queryTime)));
+        benchmark.run("index.onAir2000.linear", () -> {
+            long time = nextQueryTime(queryTime);
+            Map<String, Episode> onAir = new HashMap<>();
+            for(Map.Entry<String, List<Episode>> channel : schedules.entrySet()) {
+                for(Episode episode : channel.getValue()) {
+                    if(episode.getStartMillis() <= time && time < episode.getEndMillis()) {
+                        onAir.put(channel.getKey(), episode);
+                    }
+                }
+            }
+            return onAir;
+        });
+        benchmark.run("index.window2000", () -> {
+            long time = nextQueryTime(queryTime);
+            return scheduleIndex.window(time - hour, time + hour);
+        });
+        benchmark.run("index.window2000.linear", () -> {
+            long time = nextQueryTime(queryTime);
+            Map<String, List<Episode>> window = new HashMap<>();
+            for(Map.Entry<String, List<Episode>> channel : schedules.entrySet()) {
+                List<Episode> found = new ArrayList<>();
+                for(Episode episode : channel.getValue()) {
+                    if(episode.getEndMillis() > time - hour && episode.getStartMillis() < time + hour) {
+                        found.add(episode);
+                    }
+                }
+                window.put(channel.getKey(), found);
+            }
+            return window;
+        });
+
+        EpisodeTableModel tableModel = new EpisodeTableModel(new ThumbnailLoader());
+        new JTable(tableModel);
+        List<Episode> empty = new ArrayList<>();
+        benchmark.run("table.populate1000", () -> {
+            tableModel.setEpisodes(empty);
+            return tableModel.setEpisodes(thousandRows);
+        });
+        benchmark.run("table.populate10000", () -> {
+            tableModel.setEpisodes(empty);
+            return tableModel.setEpisodes(tenThousandRows);
+        });
+        ArrayList<Episode> otherChannel = StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                SyntheticData.schedule("164", LocalDate.now().minusDays(1), 10000)));
+        boolean[] showOther = {false};
+        benchmark.run("table.switchChannel10000", () -> {
+            showOther[0] = !showOther[0];
+            return tableModel.setEpisodes(showOther[0] ? otherChannel : tenThousandRows);
+        });
+
+        List<List<Episode>> streamed = new ArrayList<>();
+        int half = tenThousandRows.size() / 2;
+        for(int from = 0; from < half; from += 50) {
+            streamed.add(tenThousandRows.subList(from, Math.min(half, from + 50)));
+            streamed.add(tenThousandRows.subList(half + from, Math.min(tenThousandRows.size(), half + from + 50)));
+        }
+        benchmark.run("table.stream10000", () -> {
+            tableModel.setEpisodes(empty);
+            int touched = 0;
+            for(List<Episode> batch : streamed) {
+                touched += tableModel.addEpisodes(batch);
+            }
+            return touched;
+        });
+        benchmark.run("table.stream10000.resort", () -> {
+            tableModel.setEpisodes(empty);
+            ArrayList<Episode> shown = new ArrayList<>();
+            int touched = 0;
+            for(List<Episode> batch : streamed) {
+                shown.addAll(batch);
+                shown.sort(Comparator.comparingLong(Episode::getStartMillis));
+                touched += tableModel.setEpisodes(shown);
+            }
+            return touched;
+        });
+
+        DefaultTableModel rowModel = new DefaultTableModel(
+                new Object[]{"Program", "Starttid", "Sluttid", "Beskrivning", "Bild"}, 0);
+        new JTable(rowModel);
+        benchmark.run("table.populate1000.addRow", () -> addRows(rowModel, thousandRows));
+        benchmark.run("table.populate10000.addRow", () -> addRows(rowModel, tenThousandRows));
+
+        EpisodeTableModel scrollModel = new EpisodeTableModel(new ThumbnailLoader());
+        scrollModel.setDetailedMode(false);
+        scrollModel.setEpisodes(StreamingParser.parseEpisodes(new ByteArrayInputStream(
+                SyntheticData.schedule("132", LocalDate.now(), 5000))));
+        JTable scrollTable = new JTable(scrollModel);
+        scrollTable.getColumnModel().getColumn(EpisodeTableModel.TITLE_COLUMN)
+                .setCellRenderer(new GUI.WrappingTextRenderer());
+        GUI.fitRowHeights(scrollTable, 0);
+        scrollTable.setSize(scrollTable.getPreferredSize());
+        BufferedImage viewport = new BufferedImage(700, 500, BufferedImage.TYPE_INT_RGB);
+        int[] offset = {0};
+        benchmark.run("table.scroll5000", () -> {
+            offset[0] = (offset[0] + 97) % Math.max(1, scrollTable.getHeight() - viewport.getHeight());
+            Graphics2D g = viewport.createGraphics();
+            try {
+                g.translate(0, -offset[0]);
+                g.setClip(0, offset[0], viewport.getWidth(), viewport.getHeight());
+                scrollTable.paint(g);
+            } finally {
+                g.dispose();
+            }
+            return viewport;
+        });
+
+        ReplayServer upstream = new ReplayServer(null, 0, ReplayServer.Faults.none(), 50, 40);
+        upstream.start();
+        ScheduleServer server = new ScheduleServer(new Model(new FetchPolicy(new HttpTransport()),
+                upstream.getBaseUrl()), 0);
+        server.start();
+        List<String> paths = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            paths.add("/channels/" + SyntheticData.channelId(i) + "/schedule");
+        }
+        benchmark.load("server.schedule1", "http://localhost:" + server.getPort(), paths, 1);
+        benchmark.load("server.schedule", "http://localhost:" + server.getPort(), paths, 32);
+        server.stop();
+        upstream.stop();
+
+        String json = benchmark.toJson();
+        if(output != null) {
+            Files.writeString(output, json);
+        }
+        System.out.println(json);
+    }
+
+    /**
+     * Will read the first fixture file of a kind, or
+     * return the synthetic answer if there is none.
+     *
+     * @param fixtures      The fixture directory, or null.
+     * @param kind          What the file names start with.
+     * @param synthetic     What to use if there is no file.
+     * @return              The answer.
+     * @throws IOException  The file could not be read.
+     */
+    private static byte[] read(Path fixtures, String kind, byte[] synthetic) throws IOException {
+        List<byte[]> recorded = readAll(fixtures, kind);
+        return recorded.isEmpty() ? synthetic : recorded.get(0);
+    }
+
+    /**
+     * Will read every fixture file of a kind, like
+     * channels.xml or the files RecordingTransport saves,
+     * which start with the path of the request.
+     *
+     * @param fixtures      The fixture directory, or null.
+     * @param kind          What the file names start with.
+     * @return              The answers, in file name order.
+     * @throws IOException  A file could not be read.
+     */
+    private static List<byte[]> readAll(Path fixtures, String kind) throws IOException {
+        List<byte[]> recorded = new ArrayList<>();
+        if(fixtures == null || !Files.isDirectory(fixtures)) {
+            return recorded;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(fixtures, kind + "*.xml")) {
+            entries.forEach(files::add);
+        }
+        files.sort(null);
+        for(Path file : files) {
+            recorded.add(Files.readAllBytes(file));
+        }
+        return recorded;
+    }
+
+    /**
+     * Will move the time that index queries ask about a
+     * little, so no two queries in a row are the same.
+     *
+     * @param time  The last time, is updated.
+     * @return      The next time.
+     */
+    private static long nextQueryTime(long[] time) {
+        time[0] += 61_000;
+        if(time[0] > System.currentTimeMillis() + 12 * 3_600_000L) {
+            time[0] -= 24 * 3_600_000L;
+        }
+        return time[0];
+    }
+
+    /**
+     * Will copy episodes, so their footprint can be compared
+     * with StringEpisode copies that share the same texts.
+     *
+     * @param episodes  The episodes.
+     * @return          The copies.
+     */
+    private static List<Episode> copyEpisodes(List<Episode> episodes) {
+        List<Episode> copies = new ArrayList<>(episodes.size());
+        for(Episode episode : episodes) {
+            copies.add(new Episode(episode.getDescription(), episode.getTitle(),
+                    episode.getStartMillis(), episode.getEndMillis(), episode.getImage()));
+        }
+        return copies;
+    }
+
+    /**
+     * Will fill a DefaultTableModel one row at a time,
+     * the way the episode table was filled before it
+     * had a table model of its own.
+     *
+     * @param rowModel  The table model.
+     * @param episodes  The episodes to show.
+     * @return          The table model.
+     */
+    private static DefaultTableModel addRows(DefaultTableModel rowModel, List<Episode> episodes) {
+        rowModel.setRowCount(0);
+        for(Episode episode : episodes) {
+            rowModel.addRow(new Object[]{episode.getTitle(), episode.getStartTime(), episode.getEndTime(),
+                    episode.getDescription(), "Ingen bild"});
+        }
+        return rowModel;
+    }
+
+    /**
+     * Will run a case over and over, first to warm up
+     * and then to measure throughput and how many bytes
+     * are allocated per operation.
+     *
+     * @param name  The name of the case.
+     * @param task  The case.
+     * @throws Exception    The case failed.
+     */
+    private void run(String name, Task task) throws Exception {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while(System.nanoTime() < warmupEnd) {
+            sink = task.run();
+        }
+
+        long allocatedBefore = allocatedBytes();
+        long operations = 0;
+        long start = System.nanoTime();
+        long end = start + MEASURE_NANOS;
+        long now = start;
+        while(now < end) {
+            sink = task.run();
+            operations++;
+            now = System.nanoTime();
+        }
+        long allocated = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+
+        double seconds = (now - start) / 1_000_000_000.0;
+        results.add(String.format(Locale.ROOT,
+                "{\"benchmark\":\"%s\",\"mode\":\"thrpt\",\"score\":%.2f,\"unit\":\"ops/s\",\"nsPerOp\":%.1f,\"bytesPerOp\":%d}",
+                name, operations / seconds, (now - start) / (double) operations,
+                allocated < 0 ? -1 : allocated / operations));
+        System.err.println(name + ": " + Math.round(operations / seconds) + " ops/s");
+    }
+
+    /**
+     * Will send GET requests from many clients at once, first
+     * to warm up and then to measure, and report how many
+     * requests were answered per second and the latency that
+     * half of them and 99 of 100 of them were answered within.
+     *
+     * @param name      The name of the case.
+     * @param baseUrl   The server.
+     * @param paths     The paths to ask for, the clients take turns.
+     * @param clients   How many clients send requests at the same time.
+     * @throws Exception    A request failed.
+     */
+    private void load(String name, String baseUrl, List<String> paths, int clients) throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        ExecutorService threads = Executors.newFixedThreadPool(clients);
+        List<Future<long[]>> runs = new ArrayList<>();
+        long measureStart = System.nanoTime() + WARMUP_NANOS;
+        long end = measureStart + MEASURE_NANOS;
+        for(int c = 0; c < clients; c++) {
+            int first = c;
+            runs.add(threads.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                for(int i = first; System.nanoTime() < end; i++) {
+                    HttpRequest request = HttpRequest.newBuilder(
+                            URI.create(baseUrl + paths.get(i % paths.size()))).build();
+                    long start = System.nanoTime();
+                    HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                    long latency = System.nanoTime() - start;
+                    if(response.statusCode() != 200) {
+                        throw new IOException("HTTP " + response.statusCode() + " from " + request.uri());
+                    }
+                    if(start >= measureStart) {
+                        if(count == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, count * 2);
+                        }
+                        latencies[count++] = latency;
+                    }
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+
+        long[] all = new long[0];
+        for(Future<long[]> run : runs) {
+            long[] latencies = run.get();
+            int size = all.length;
+            all = Arrays.copyOf(all, size + latencies.length);
+            System.arraycopy(latencies, 0, all, size, latencies.length);
+        }
+        threads.shutdown();
+        Arrays.sort(all);
+
+        double perSecond = all.length / (MEASURE_NANOS / 1_000_000_000.0);
+        double p50 = all[all.length / 2] / 1000.0;
+        double p99 = all[(int) (all.length * 0.99)] / 1000.0;
+        results.add(String.format(Locale.ROOT,
+                "{\"benchmark\":\"%s\",\"mode\":\"load\",\"score\":%.2f,\"unit\":\"req/s\",\"p50Us\":%.1f,\"p99Us\":%.1f,\"clients\":%d}",
+                name, perSecond, p50, p99, clients));
+        System.err.println(name + ": " + Math.round(perSecond) + " req/s, p50 " + Math.round(p50)
+                + " us, p99 " + Math.round(p99) + " us");
+    }
+
+    /**
+     * Will measure how much heap the result of a task
+     * holds on to, by comparing the used heap after a
+     * garbage collection before and after the task.
+     *
+     * @param name  The name of the case.
+     * @param task  The case, its result is kept while measuring.
+     * @throws Exception    The case failed.
+     */
+    private void footprint(String name, Task task) throws Exception {
+        long before = usedHeap();
+        Object result = task.run();
+        long retained = usedHeap() - before;
+        sink = result;
+        results.add(String.format(Locale.ROOT,
+                "{\"benchmark\":\"%s\",\"mode\":\"footprint\",\"score\":%d,\"unit\":\"bytes\"}",
+                name, retained));
+        System.err.println(name + ": " + retained / 1024 + " kB");
+        sink = null;
+    }
+
+    /**
+     * Returns the used heap after asking for a
+     * few garbage collections.
+     *
+     * @return  The used heap in bytes.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for(int i = 0; i < 4; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns how many bytes the current thread has
+     * allocated, if the JVM can tell.
+     *
+     * @return  The number of bytes, or a negative number if unknown.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if(threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * Will put every result in a JSON array.
+     *
+     * @return  The JSON.
+     */
+    private String toJson() {
+        return "[\n  " + String.join(",\n  ", results) + "\n]\n";
+    }
+
+    /**
+     * -------------------- Task interface --------------------
+     */
+    private interface Task {
+        Object run() throws Exception;
+    }
+
+    /**
+     * -------------------- StringEpisode class --------------------
+     */
+    private static final class StringEpisode {
+
+        private final String description;
+        private final String title;
+        private final String starttime;
+        private final String endtime;
+        private final String imageURL;
+
+        /**
+         * Constructor. Keeps the times as "MM-dd HH:mm"
+         * strings, like episodes did before they kept
+         * epoch milliseconds.
+         *
+         * @param episode   The episode to copy.
+         */
+        private StringEpisode(Episode episode) {
+            this.description = episode.getDescription();
+            this.title = episode.getTitle();
+            this.starttime = ZonedDateTime.ofInstant(Instant.ofEpochMilli(episode.getStartMillis()), Model.SWEDISH_ZONE)
+                    .format(DateTimeFormatter.ofPattern("MM-dd HH:mm"));
+            this.endtime = ZonedDateTime.ofInstant(Instant.ofEpochMilli(episode.getEndMillis()), Model.SWEDISH_ZONE)
+                    .format(DateTimeFormatter.ofPattern("MM-dd HH:mm"));
+            this.imageURL = episode.getImage();
+        }
+
+        /**
+         * Will copy episodes the way they were kept before.
+         *
+         * @param episodes  The episodes.
+         * @return          The copies.
+         */
+        private static List<StringEpisode> of(List<Episode> episodes) {
+            List<StringEpisode> copies = new ArrayList<>(episodes.size());
+            for(Episode episode : episodes) {
+                copies.add(new StringEpisode(episode));
+            }
+            return copies;
+        }
+
+        /**
+         * Will filter the copies the way Model.filterEpisodes()
+         * did before, parsing the start time of every episode
+         * again with a new formatter.
+         *
+         * @param copies    The copies.
+         * @return          The copies within twelve hours of now.
+         */
+        private static List<StringEpisode> filter(List<StringEpisode> copies) {
+            List<StringEpisode> filtered = new ArrayList<>();
+            LocalDateTime now = LocalDateTime.now(Model.SWEDISH_ZONE);
+            LocalDateTime starterTime = now.minusHours(12);
+            LocalDateTime enderTime = now.plusHours(12);
+            for(StringEpisode copy : copies) {
+                String fullDateTime = now.getYear() + "-" + copy.starttime;
+                LocalDateTime startTime = LocalDateTime.parse(fullDateTime, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+                if(startTime.isAfter(starterTime) && startTime.isBefore(enderTime)) {
+                    filtered.add(copy);
+                }
+            }
+            return filtered;
+        }
+    }
+}
@@ -0,0 +1,818 @@
+/**
+ * Checks how the RadioInfo program behaves under load
+ * and with a slow Sveriges radio, against a local
+ * ReplayServer or a stub transport. There is no test framework in the
+ * project, so every check is a plain method that prints
+ * its result, and the program exits with status 1 if
+ * any check failed.
+ *
+ * java Checks
+ *
+ * Checks that need a window are skipped when there is
+ * no display.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import javax.swing.*;
+import java.awt.GraphicsEnvironment;
+import java.io.ByteArrayInputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * -------------------- Checks class --------------------
+ */
+public class Checks {
+    private static final long SLOW_LATENCY_MILLIS = 2_000;
+    private static final long MAX_EDT_DELAY_MILLIS = 250;
+
+    private int failed;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("radioinfo.archive", "off");
+        System.setProperty("radioinfo.snapshot",
+                Files.createTempDirectory("radioinfo").resolve("snapshot").toString());
+
+        Checks checks = new Checks();
+        checks.datesFetchedInParallel();
+        checks.refreshPlanOverOneDay();
+        checks.unchangedSchedulesAreNotSentAgain();
+        checks.breakerOpensOnServerFaults();
+        checks.breakerIgnoresCancelledFetches();
+        checks.firstRowsBeforeLoadCompletes();
+        checks.prefetchedChannelsShownFromMemory();
+        checks.identicalFetchesShareOneRequest();
+        checks.cancelledLeaderDoesNotFailFollowers();
+        checks.channelsStayWholeWhileRefetched();
+        checks.snapshotKeepsLongTexts();
+        checks.archiveReturnsEpisodesOnce();
+        checks.swingOnlyOnEdt();
+
+        System.out.println(checks.failed == 0 ? "All checks passed" : checks.failed + " checks failed");
+        System.exit(checks.failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Will fetch the episodes of a channel from a slow
+     * transport, and check that the dates of the timespan
+     * are fetched at the same time, so the whole fetch
+     * takes less than two requests would one after another.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void datesFetchedInParallel() throws Exception {
+        long latency = SLOW_LATENCY_MILLIS / 4;
+        AtomicInteger requests = new AtomicInteger();
+        Transport slow = (url, validators) -> {
+            requests.incrementAndGet();
+            LocalDate date = LocalDate.parse(url.replaceAll(".*&date=([^&]*).*", "$1"));
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting.");
+            }
+            return Transport.Response.of(new ByteArrayInputStream(SyntheticData.schedule("132", date, 40)));
+        };
+        // The first fetch also loads the parser, so it is not measured
+        new Model(slow, "http://localhost").findAllEpisodesFromIDAsync("132").get(30, TimeUnit.SECONDS);
+        requests.set(0);
+        Model model = new Model(slow, "http://localhost");
+
+        long start = System.nanoTime();
+        model.findAllEpisodesFromIDAsync("132").get(30, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        check("fetch.parallelDates", requests.get() >= 2 && elapsed < latency * 2,
+                requests.get() + " dates of " + latency + " ms each took " + elapsed + " ms");
+    }
+
+    /**
+     * Will load a channel from a local ReplayServer that
+     * sends slowly, and merge the batches into a table model
+     * on the Event Dispatch Thread as they come. The first
+     * rows must be in the table well before the load is done,
+     * and the merged rows must be the same as the finished list.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void firstRowsBeforeLoadCompletes() throws Exception {
+        ReplayServer server = new ReplayServer(null, 0,
+                new ReplayServer.Faults(0, 0, 16_000, 0, 0, 0), 5, 40);
+        server.start();
+        Model model = new Model(new FetchPolicy(new HttpTransport()), server.getBaseUrl());
+        EpisodeTableModel table = new EpisodeTableModel(new ThumbnailLoader());
+
+        long start = System.nanoTime();
+        AtomicLong firstRow = new AtomicLong();
+        ArrayList<Episode> finished = model.findAllEpisodesFromIDAsync(SyntheticData.channelId(0), batch -> {
+            try {
+                SwingUtilities.invokeAndWait(() -> {
+                    table.addEpisodes(batch);
+                    firstRow.compareAndSet(0, System.nanoTime() - start);
+                });
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).get(30, TimeUnit.SECONDS);
+        long complete = System.nanoTime() - start;
+        server.stop();
+
+        int[] touched = new int[2];
+        SwingUtilities.invokeAndWait(() -> {
+            touched[0] = table.getRowCount();
+            touched[1] = table.setEpisodes(finished);
+        });
+        check("stream.firstRowsEarly", firstRow.get() > 0 && firstRow.get() < complete / 2,
+                "first rows after " + TimeUnit.NANOSECONDS.toMillis(firstRow.get()) + " ms, load done after "
+                        + TimeUnit.NANOSECONDS.toMillis(complete) + " ms");
+        check("stream.mergedRows", touched[0] == finished.size() && touched[1] == 0,
+                touched[0] + " rows merged from batches, " + touched[1] + " changed by the finished list of "
+                        + finished.size());
+    }
+
+    /**
+     * Will refresh a channel three times against a local
+     * ReplayServer, letting the cached schedules expire in
+     * between. The second and third refresh must only get
+     * "not modified" answers, and neither read nor parse
+     * any body.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void unchangedSchedulesAreNotSentAgain() throws Exception {
+        ReplayServer server = new ReplayServer(null, 0, ReplayServer.Faults.none(), 5, 40);
+        server.start();
+        HttpTransport transport = new HttpTransport();
+        Model model = new Model(new FetchPolicy(transport), server.getBaseUrl());
+        String id = SyntheticData.channelId(0);
+
+        StringBuilder detail = new StringBuilder();
+        boolean ok = true;
+        for(int refresh = 1; refresh <= 3; refresh++) {
+            long notModified = Metrics.value("http.notModified");
+            long parsed = model.getParseCount();
+            long bytes = transport.getBytesReceived();
+            for(LocalDate date : Model.windowDates(System.currentTimeMillis())) {
+                ArrayList<Episode> episodes = model.getScheduleCache().getStale(id, date);
+                if(episodes != null) {
+                    model.getScheduleCache().put(id, date, episodes, 0);
+                }
+            }
+            model.findAllEpisodesFromIDAsync(id).get(30, TimeUnit.SECONDS);
+
+            notModified = Metrics.value("http.notModified") - notModified;
+            parsed = model.getParseCount() - parsed;
+            bytes = transport.getBytesReceived() - bytes;
+            if(refresh > 1) {
+                ok &= notModified >= 2 && parsed == 0 && bytes == 0;
+            }
+            detail.append(refresh == 1 ? "" : ", ").append("refresh ").append(refresh).append(": ")
+                    .append(notModified).append(" not modified, ").append(parsed).append(" parsed, ")
+                    .append(bytes).append(" bytes");
+        }
+        server.stop();
+
+        check("conditional.notModified", ok, detail.toString());
+    }
+
+    /**
+     * Will fetch from a local ReplayServer that answers 503
+     * to everything, and from one that resets every body
+     * halfway. The breaker must open in both cases, and while
+     * it is open an expired schedule in the cache must be
+     * shown instead of sending anything.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void breakerOpensOnServerFaults() throws Exception {
+        ReplayServer.Faults[] faults = {
+                new ReplayServer.Faults(0, 0, 0, 1, 0, 0),
+                new ReplayServer.Faults(0, 0, 0, 0, 1, 0)
+        };
+        String[] names = {"breaker.opensOn503", "breaker.opensOnReset"};
+        for(int i = 0; i < faults.length; i++) {
+            ReplayServer server = new ReplayServer(null, 0, faults[i], 5, 40);
+            server.start();
+            FetchPolicy policy = new FetchPolicy(new HttpTransport(), new CircuitBreaker(3, 60_000), 1, 5_000);
+            Model model = new Model(policy, server.getBaseUrl());
+            LocalDate today = LocalDate.now();
+            int failures = 0;
+            for(int channel = 0; channel < 5; channel++) {
+                try {
+                    model.findAllEpisodesFromDate(SyntheticData.channelId(channel), today.toString());
+                } catch (Exception e) {
+                    failures++;
+                }
+            }
+            CircuitBreaker.State state = policy.getBreaker().getState();
+            check(names[i], state == CircuitBreaker.State.OPEN,
+                    failures + " of 5 fetches failed, breaker " + state);
+
+            if(i == 0) {
+                String id = SyntheticData.channelId(0);
+                ArrayList<Episode> stale = new ArrayList<>(Model.parseEpisodesDOM(new ByteArrayInputStream(
+                        SyntheticData.schedule(id, today, 40))));
+                model.getScheduleCache().put(id, today, stale, 0);
+                long rejected = Metrics.value("fetch.rejected");
+                int shown = model.findAllEpisodesFromDate(id, today.toString()).size();
+                rejected = Metrics.value("fetch.rejected") - rejected;
+                check("breaker.servesStale", shown == stale.size() && rejected == 1,
+                        shown + " stale episodes shown, " + rejected + " fetches rejected by the open breaker");
+            }
+            server.stop();
+        }
+    }
+
+    /**
+     * Will start fetches against a slow local ReplayServer
+     * and cancel every one of them before it is answered.
+     * A caller giving up says nothing about the server, so
+     * the breaker must stay closed.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void breakerIgnoresCancelledFetches() throws Exception {
+        ReplayServer server = new ReplayServer(null, 0,
+                new ReplayServer.Faults(SLOW_LATENCY_MILLIS, 0, 0, 0, 0, 0), 5, 40);
+        server.start();
+        FetchPolicy policy = new FetchPolicy(new HttpTransport(), new CircuitBreaker(3, 60_000), 1, 5_000);
+        Model model = new Model(policy, server.getBaseUrl());
+
+        ExecutorService threads = Executors.newSingleThreadExecutor();
+        int cancelled = 0;
+        for(int channel = 0; channel < 5; channel++) {
+            String id = SyntheticData.channelId(channel);
+            Future<ArrayList<Episode>> fetch = threads.submit(
+                    () -> model.findAllEpisodesFromDate(id, LocalDate.now().toString()));
+            Thread.sleep(200);
+            if(fetch.cancel(true)) {
+                cancelled++;
+            }
+        }
+        threads.shutdown();
+        threads.awaitTermination(10, TimeUnit.SECONDS);
+        // The aborted requests report to the breaker on their own threads
+        Thread.sleep(200);
+        server.stop();
+
+        CircuitBreaker.State state = policy.getBreaker().getState();
+        check("breaker.ignoresCancels", cancelled == 5 && state == CircuitBreaker.State.CLOSED,
+                cancelled + " fetches cancelled, breaker " + state);
+    }
+
+    /**
+     * Will let the RefreshScheduler plan a whole day on a
+     * simulated clock, once with a user at the window, once
+     * minimized and once with nobody using it, and count the
+     * wakeups and fetches. A timer that refreshes every hour
+     * wakes up and fetches 24 times a day.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void refreshPlanOverOneDay() throws Exception {
+        int[] active = simulateDay(true, true);
+        int[] minimized = simulateDay(false, false);
+        int[] idle = simulateDay(true, false);
+
+        check("refresh.activeFetches", active[1] <= 25,
+                active[0] + " wakeups, " + active[1] + " of them fetching, while used");
+        check("refresh.minimizedBackoff", minimized[0] <= 9 && minimized[1] <= 9,
+                minimized[0] + " wakeups, " + minimized[1] + " of them fetching, while minimized");
+        check("refresh.idleBackoff", idle[1] <= 9 && idle[0] > idle[1],
+                idle[0] + " wakeups, " + idle[1] + " of them fetching, while idle");
+    }
+
+    /**
+     * Will run the planned wakeups of a RefreshScheduler for
+     * 24 hours on a simulated clock. The wakeups are not run
+     * by the executor, but one after another with the clock
+     * moved forward to each of them.
+     *
+     * @param visible   True if the window is shown.
+     * @param used      True if the user does something at every wakeup.
+     * @return          The number of wakeups and of fetches.
+     */
+    private static int[] simulateDay(boolean visible, boolean used) throws Exception {
+        String id = "132";
+        SimulatedClock clock = new SimulatedClock(System.currentTimeMillis());
+        ScheduleCache cache = new ScheduleCache(16, clock);
+        ScheduleIndex index = new ScheduleIndex();
+        int[] counts = new int[2];
+        RefreshScheduler.Listener listener = (channelId, fetch) -> {
+            if(!fetch) {
+                return;
+            }
+            counts[1]++;
+            for(LocalDate date : Model.windowDates(clock.millis())) {
+                ArrayList<Episode> episodes = new ArrayList<>();
+                long dayStart = date.atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                long length = TimeUnit.DAYS.toMillis(1) / 40;
+                for(int i = 0; i < 40; i++) {
+                    episodes.add(new Episode("", "Avsnitt " + i, dayStart + i * length,
+                            dayStart + (i + 1) * length, null));
+                }
+                cache.put(channelId, date, episodes, clock.millis());
+                index.update(channelId, episodes);
+            }
+        };
+
+        CapturingExecutor executor = new CapturingExecutor();
+        RefreshScheduler scheduler = new RefreshScheduler(index, cache, clock, executor, listener);
+        scheduler.setVisible(visible);
+        scheduler.reschedule(id);
+        long end = clock.millis() + TimeUnit.DAYS.toMillis(1);
+        while(executor.next != null && clock.millis() + executor.delay <= end) {
+            Runnable wakeUp = executor.next;
+            clock.now += executor.delay;
+            executor.next = null;
+            if(used) {
+                scheduler.userActivity();
+            }
+            counts[0]++;
+            wakeUp.run();
+        }
+        scheduler.stop();
+        executor.shutdownNow();
+        return counts;
+    }
+
+    /**
+     * Will prefetch 50 channels from a stub transport, and
+     * then show every one of them in a table model. After
+     * the prefetch, no channel may send a request, and every
+     * channel must be found in the cache.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void prefetchedChannelsShownFromMemory() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        Transport stub = (url, validators) -> {
+            requests.incrementAndGet();
+            String id = url.replaceAll(".*channelid=([^&]*).*", "$1");
+            LocalDate date = LocalDate.parse(url.replaceAll(".*&date=([^&]*).*", "$1"));
+            return Transport.Response.of(new ByteArrayInputStream(SyntheticData.schedule(id, date, 40)));
+        };
+        Model model = new Model(stub, "http://localhost");
+        List<Channel> channels = new ArrayList<>();
+        for(int i = 0; i < 50; i++) {
+            channels.add(new Channel("Kanal " + i, SyntheticData.channelId(i)));
+        }
+
+        CountDownLatch prefetched = new CountDownLatch(1);
+        new PrefetchService(model, 4, new RateLimiter(1000, 1000), new PrefetchService.Listener() {
+            @Override
+            public void progress(int done, int total) {
+
+            }
+
+            @Override
+            public void finished(int total, int failed, long millis) {
+                prefetched.countDown();
+            }
+        }).start(channels);
+        prefetched.await(30, TimeUnit.SECONDS);
+
+        int warmup = requests.get();
+        EpisodeTableModel table = new EpisodeTableModel(new ThumbnailLoader());
+        int cached = 0;
+        long start = System.nanoTime();
+        for(Channel channel : channels) {
+            ArrayList<Episode> episodes = model.findCachedEpisodesFromID(channel.getId());
+            if(episodes != null) {
+                cached++;
+                table.setEpisodes(episodes);
+            }
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        for(Channel channel : channels) {
+            model.findAllEpisodesFromIDAsync(channel.getId()).get(30, TimeUnit.SECONDS);
+        }
+        int after = requests.get() - warmup;
+
+        check("prefetch.fromMemory", cached == channels.size() && after == 0,
+                cached + " of " + channels.size() + " channels shown from memory in " + elapsed + " us, "
+                        + warmup + " requests to warm up, " + after + " after");
+    }
+
+    /**
+     * Will save and load a snapshot holding an episode
+     * whose description is far longer than the 64 kB that
+     * writeUTF() can write, and check that it comes back.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void snapshotKeepsLongTexts() throws Exception {
+        String description = "Lång beskrivning åäö. ".repeat(10_000);
+        ArrayList<Episode> episodes = new ArrayList<>();
+        episodes.add(new Episode(description, "Ekot", 0, 60_000, null));
+        List<ScheduleCache.Entry> schedules = new ArrayList<>();
+        schedules.add(new ScheduleCache.Entry("132", LocalDate.now(), episodes, 0));
+        Path file = Files.createTempDirectory("radioinfo").resolve("snapshot");
+
+        new Snapshot(new ArrayList<>(), schedules, "132").save(file);
+        Snapshot loaded = Snapshot.load(file);
+        boolean kept = loaded != null && loaded.getSchedules().size() == 1
+                && description.equals(loaded.getSchedules().get(0).getEpisodes().get(0).getDescription());
+        check("snapshot.longTexts", kept,
+                description.getBytes(StandardCharsets.UTF_8).length + " bytes of description "
+                        + (kept ? "kept" : "lost"));
+    }
+
+    /**
+     * Will archive an episode that crosses midnight in the
+     * schedules of both dates, and once more with a new
+     * description, and check that a query returns it once,
+     * with the newest description.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void archiveReturnsEpisodesOnce() throws Exception {
+        ScheduleArchive archive = new ScheduleArchive(Files.createTempDirectory("radioinfo-archive"));
+        LocalDate date = LocalDate.now().minusDays(1);
+        long midnight = date.plusDays(1).atStartOfDay(Model.SWEDISH_ZONE).toInstant().toEpochMilli();
+        long hour = TimeUnit.HOURS.toMillis(1);
+        Episode night = new Episode("Natt", "Nattpasset", midnight - hour, midnight + hour, null);
+        archive.append("132", date, List.of(night));
+        archive.append("132", date.plusDays(1), List.of(night));
+        archive.append("132", date.plusDays(1), List.of(
+                new Episode("Natt, ny beskrivning", "Nattpasset", midnight - hour, midnight + hour, null)));
+        archive.flush();
+
+        List<Episode> found = archive.query("132", midnight - 2 * hour, midnight + 2 * hour);
+        check("archive.midnightOnce", found.size() == 1
+                        && found.get(0).getDescription().equals("Natt, ny beskrivning"),
+                found.size() + " episodes found for one that crosses midnight");
+    }
+
+    /**
+     * Will let 100 threads fetch the same schedule at the
+     * same time from a slow transport, and check that only
+     * one request is sent and that every thread gets the
+     * episodes.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void identicalFetchesShareOneRequest() throws Exception {
+        byte[] schedule = SyntheticData.schedule("132", LocalDate.now(), 40);
+        AtomicInteger requests = new AtomicInteger();
+        Transport slow = (url, validators) -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(SLOW_LATENCY_MILLIS / 4);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting.");
+            }
+            return Transport.Response.of(new ByteArrayInputStream(schedule));
+        };
+        Model model = new Model(slow, "http://localhost");
+
+        int callers = 100;
+        ExecutorService threads = Executors.newFixedThreadPool(callers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<ArrayList<Episode>>> results = new ArrayList<>();
+        for(int i = 0; i < callers; i++) {
+            results.add(threads.submit(() -> {
+                start.await();
+                return model.findAllEpisodesFromDate("132", LocalDate.now().toString());
+            }));
+        }
+        start.countDown();
+        int complete = 0;
+        for(Future<ArrayList<Episode>> result : results) {
+            if(result.get(30, TimeUnit.SECONDS).size() == 40) {
+                complete++;
+            }
+        }
+        threads.shutdown();
+
+        check("singleFlight.oneRequest", requests.get() == 1, callers + " callers sent " + requests.get() + " requests");
+        check("singleFlight.allAnswered", complete == callers, complete + " of " + callers + " got every episode");
+    }
+
+    /**
+     * Will start a fetch, let two more callers wait for the
+     * same request, and then interrupt the caller that started
+     * it. The others must still get the episodes from the one
+     * request. When every caller has given up, the request
+     * must be aborted.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void cancelledLeaderDoesNotFailFollowers() throws Exception {
+        byte[] schedule = SyntheticData.schedule("132", LocalDate.now(), 40);
+        AtomicInteger requests = new AtomicInteger();
+        Transport slow = (url, validators) -> {
+            requests.incrementAndGet();
+            try {
+                Thread.sleep(SLOW_LATENCY_MILLIS / 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting.");
+            }
+            return Transport.Response.of(new ByteArrayInputStream(schedule));
+        };
+        Model model = new Model(slow, "http://localhost");
+        String date = LocalDate.now().toString();
+
+        ExecutorService threads = Executors.newFixedThreadPool(3);
+        Future<ArrayList<Episode>> leader = threads.submit(() -> model.findAllEpisodesFromDate("132", date));
+        Thread.sleep(100);
+        List<Future<ArrayList<Episode>>> followers = new ArrayList<>();
+        for(int i = 0; i < 2; i++) {
+            followers.add(threads.submit(() -> model.findAllEpisodesFromDate("132", date)));
+        }
+        Thread.sleep(100);
+        leader.cancel(true);
+        int answered = 0;
+        for(Future<ArrayList<Episode>> follower : followers) {
+            try {
+                if(follower.get(30, TimeUnit.SECONDS).size() == 40) {
+                    answered++;
+                }
+            } catch (ExecutionException e) {
+                System.out.println("  follower failed: " + e.getCause());
+            }
+        }
+        check("singleFlight.leaderCancelled", answered == 2 && requests.get() == 1,
+                answered + " of 2 followers got the episodes from " + requests.get() + " requests");
+
+        String tomorrow = LocalDate.now().plusDays(1).toString();
+        Future<ArrayList<Episode>> alone = threads.submit(() -> model.findAllEpisodesFromDate("132", tomorrow));
+        Thread.sleep(100);
+        alone.cancel(true);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while(model.getSingleFlight().getAbandoned() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        threads.shutdown();
+        check("singleFlight.abortedWhenAlone", model.getSingleFlight().getAbandoned() == 1,
+                model.getSingleFlight().getAbandoned() + " requests aborted after their only caller gave up");
+    }
+
+    /**
+     * Will fetch the channels over and over on two threads
+     * while eight threads read them, and check that a reader
+     * never sees a list with missing or duplicated channels,
+     * which it did when a fetch appended to the list in place.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void channelsStayWholeWhileRefetched() throws Exception {
+        int count = 50;
+        byte[] channels = SyntheticData.channels(count);
+        Model model = new Model((url, validators) -> Transport.Response.of(new ByteArrayInputStream(channels)),
+                "http://localhost");
+        model.findAllChannels();
+        model.findAllChannels();
+        check("channels.refetch", isWhole(model.getAllChannels(), count),
+                model.getAllChannels().size() + " channels after fetching twice");
+
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong reads = new AtomicLong();
+        AtomicLong broken = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < 8; i++) {
+            threads.add(new Thread(() -> {
+                while(!stop.get()) {
+                    if(!isWhole(model.getAllChannels(), count)) {
+                        broken.incrementAndGet();
+                    }
+                    reads.incrementAndGet();
+                }
+            }));
+        }
+        for(int i = 0; i < 2; i++) {
+            threads.add(new Thread(() -> {
+                while(!stop.get()) {
+                    try {
+                        model.findAllChannels();
+                    } catch (Exception e) {
+                        broken.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(SLOW_LATENCY_MILLIS);
+        stop.set(true);
+        for(Thread thread : threads) {
+            thread.join();
+        }
+        check("channels.consistentReads", broken.get() == 0,
+                broken.get() + " broken of " + reads.get() + " reads while refetching");
+    }
+
+    /**
+     * Will check that a list of channels holds a
+     * number of channels, each of them once.
+     *
+     * @param channels  The channels.
+     * @param count     How many there should be.
+     * @return          True if every channel is there once.
+     */
+    private static boolean isWhole(List<Channel> channels, int count) {
+        Set<String> ids = new HashSet<>();
+        for(Channel channel : channels) {
+            ids.add(channel.getId());
+        }
+        return channels.size() == count && ids.size() == count;
+    }
+
+    /**
+     * Will run the whole program against a server that takes
+     * two seconds to answer, click through channels faster
+     * than they load, and check that no Swing component was
+     * changed outside the Event Dispatch Thread, that the
+     * Event Dispatch Thread never stopped answering and that
+     * only the newest click was ever shown. Loads of older
+     * clicks answer earlier than the newest, so any episodes
+     * shown before the newest load could answer are stale.
+     *
+     * @throws Exception    The check could not be run.
+     */
+    private void swingOnlyOnEdt() throws Exception {
+        if(GraphicsEnvironment.isHeadless()) {
+            System.out.println("SKIP edt: needs a display");
+            return;
+        }
+
+        ReplayServer server = new ReplayServer(null, 0,
+                new ReplayServer.Faults(SLOW_LATENCY_MILLIS, 0, 0, 0, 0, 0), 20, 40);
+        server.start();
+        System.setProperty("radioinfo.baseUrl", server.getBaseUrl());
+        System.setProperty("radioinfo.imageBaseUrl", server.getBaseUrl());
+
+        AtomicLong offEdt = new AtomicLong();
+        SwingUtilities.invokeAndWait(() -> RepaintManager.setCurrentManager(new RepaintManager() {
+            @Override
+            public synchronized void addInvalidComponent(JComponent component) {
+                checkThread();
+                super.addInvalidComponent(component);
+            }
+
+            @Override
+            public void addDirtyRegion(JComponent component, int x, int y, int width, int height) {
+                checkThread();
+                super.addDirtyRegion(component, x, y, width, height);
+            }
+
+            private void checkThread() {
+                if(!SwingUtilities.isEventDispatchThread()) {
+                    offEdt.incrementAndGet();
+                    new IllegalStateException("Swing changed off the EDT").printStackTrace();
+                }
+            }
+        }));
+
+        Controller[] controller = new Controller[1];
+        List<Long> shown = Collections.synchronizedList(new ArrayList<>());
+        SwingUtilities.invokeAndWait(() -> controller[0] = new Controller(new GUI() {
+            @Override
+            public int showEpisodes(List<Episode> episodes) {
+                shown.add(System.nanoTime());
+                return super.showEpisodes(episodes);
+            }
+        }));
+
+        long worstDelay = 0;
+        long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SLOW_LATENCY_MILLIS * 4);
+        int clicks = 0;
+        long lastClick = 0;
+        while(System.nanoTime() < end) {
+            if(clicks < 10) {
+                lastClick = System.nanoTime();
+                String id = SyntheticData.channelId(clicks);
+                SwingUtilities.invokeLater(() -> controller[0].clickedChannel(new Channel("Kanal " + id, id)));
+                clicks++;
+            }
+            long posted = System.nanoTime();
+            SwingUtilities.invokeAndWait(() -> { });
+            worstDelay = Math.max(worstDelay, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - posted));
+            Thread.sleep(50);
+        }
+
+        check("edt.offEdtChanges", offEdt.get() == 0, offEdt.get() + " Swing changes off the EDT");
+        check("edt.responsive", worstDelay <= MAX_EDT_DELAY_MILLIS, "EDT answered within " + worstDelay + " ms");
+        long newestReady = lastClick + TimeUnit.MILLISECONDS.toNanos(SLOW_LATENCY_MILLIS - MAX_EDT_DELAY_MILLIS);
+        long stale;
+        synchronized (shown) {
+            stale = shown.stream().filter(time -> time < newestReady).count();
+        }
+        check("edt.newestClickWins", !shown.isEmpty() && stale == 0,
+                shown.size() + " updates shown, " + stale + " of them from older clicks");
+        server.stop();
+    }
+
+    /**
+     * Will print the result of a check and remember
+     * if it failed.
+     *
+     * @param name      The name of the check.
+     * @param ok        True if the check passed.
+     * @param detail    What was measured.
+     */
+    private void check(String name, boolean ok, String detail) {
+        if(!ok) {
+            failed++;
+        }
+        System.out.println((ok ? "PASS " : "FAIL ") + name + ": " + detail);
+    }
+
+    /**
+     * -------------------- SimulatedClock class --------------------
+     */
+    private static final class SimulatedClock extends Clock {
+        private long now;
+
+        /**
+         * Constructor.
+         *
+         * @param now   The start time in epoch milliseconds.
+         */
+        private SimulatedClock(long now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return Clock.fixed(instant(), zone);
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now);
+        }
+    }
+
+    /**
+     * -------------------- CapturingExecutor class --------------------
+     */
+    private static final class CapturingExecutor extends ScheduledThreadPoolExecutor {
+        private Runnable next;
+        private long delay;
+
+        /**
+         * Constructor.
+         */
+        private CapturingExecutor() {
+            super(1);
+        }
+
+        /**
+         * Will remember the task instead of running it. The
+         * returned future never runs, but can be cancelled.
+         *
+         * @param command   The task.
+         * @param delay     When it should run.
+         * @param unit      The unit of the delay.
+         * @return          A future for the task.
+         */
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            ScheduledFuture<?> future = super.schedule(() -> { }, 1, TimeUnit.DAYS);
+            this.next = () -> {
+                if(!future.isCancelled()) {
+                    command.run();
+                }
+            };
+            this.delay = unit.toMillis(delay);
+            return future;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * A circuit breaker for the RadioInfo program. When
+ * Sveriges radio fails too many times in a row, the
+ * breaker opens and every request fails right away
+ * instead of waiting for another timeout. After a
+ * while one trial request is let through, and if it
+ * works the breaker closes again.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- CircuitBreaker class --------------------
+ */
+public class CircuitBreaker {
+
+    /**
+     * -------------------- State enum --------------------
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialRunning;
+
+    /**
+     * Constructor.
+     *
+     * @param failureThreshold  How many failures in a row open the breaker.
+     * @param openMillis        How long the breaker stays open before a trial.
+     */
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openMillis * 1_000_000L;
+    }
+
+    /**
+     * Will check if a request may be sent. When the
+     * breaker has been open long enough, the first
+     * caller is let through as a trial and the rest
+     * are turned away until the trial is done.
+     *
+     * @return  True if the request may be sent.
+     */
+    public synchronized boolean allowRequest() {
+        if(state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            trialRunning = false;
+        }
+        if(state == State.HALF_OPEN) {
+            if(trialRunning) {
+                return false;
+            }
+            trialRunning = true;
+            return true;
+        }
+        return state == State.CLOSED;
+    }
+
+    /**
+     * Will record that a request worked,
+     * which closes the breaker.
+     */
+    public synchronized void recordSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        trialRunning = false;
+    }
+
+    /**
+     * Will record that a request failed. A failed
+     * trial opens the breaker again right away.
+     */
+    public synchronized void recordFailure() {
+        failures++;
+        if(state == State.HALF_OPEN || failures >= failureThreshold) {
+            if(state != State.OPEN) {
+                Metrics.counter("breaker.opened").increment();
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            trialRunning = false;
+        }
+    }
+
+    /**
+     * Will record that a request ended without showing
+     * if Sveriges radio works, like a body that was closed
+     * before it was read to the end. If it was the trial,
+     * the next request may be the trial instead.
+     */
+    public synchronized void recordAbandoned() {
+        trialRunning = false;
+    }
+
+    /**
+     * Returns the state of the breaker.
+     *
+     * @return  The state.
+     */
+    public synchronized State getState() {
+        return state;
+    }
+}
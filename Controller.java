@@ -10,54 +10,188 @@
 /**
  * -------------------- Imports --------------------
  */
-import org.xml.sax.SAXException;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
+import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * -------------------- Controller class --------------------
  */
 public class Controller implements ActionListener {
+    private static final int SEARCH_RESULTS = 20;
+
     private final GUI gui;
     private Model model;
     private ScheduledExecutorService executor;
+    private RefreshScheduler refreshScheduler;
     private volatile Channel channel;
+    private volatile Channel shownChannel;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile CompletableFuture<ArrayList<Episode>> currentLoad;
+    private volatile PrefetchService prefetch;
+    private volatile List<Channel> channels = new ArrayList<>();
+    private final Path snapshotFile = Snapshot.defaultFile();
+    private final long startNanos;
+    private volatile long timeToInteractiveMillis = -1;
 
     /**
      * Constructor.
      *
      * @param gui   The GUI the controller will control.
-     * @throws IOException
-     * @throws ParserConfigurationException
-     * @throws TransformerException
-     * @throws SAXException
      */
-    public Controller(GUI gui) throws IOException, ParserConfigurationException, TransformerException, SAXException {
+    public Controller(GUI gui) {
+        this(gui, System.nanoTime());
+    }
+
+    /**
+     * Constructor. If there is a saved snapshot, its
+     * channels and schedules are shown right away. The
+     * channels are then fetched in the background and
+     * replace the ones from the snapshot when they are found.
+     *
+     * @param gui           The GUI the controller will control.
+     * @param startNanos    When the program started, from System.nanoTime().
+     */
+    public Controller(GUI gui, long startNanos) {
         this.gui = gui;
+        this.startNanos = startNanos;
         this.gui.addController(this);
 
         model = new Model();
-        model.findAllChannels();
-        this.gui.addChannelButtons(model.getAllChannels());
+        Snapshot snapshot = Snapshot.load(snapshotFile);
+        if(snapshot != null) {
+            restoreSnapshot(snapshot);
+        }
 
-        executor = Executors.newScheduledThreadPool(1);
-        executor.scheduleAtFixedRate(new Runnable() {
-            @Override
-            public void run() {
-                try {
+        model.findAllChannelsAsync().whenComplete((found, ex) -> SwingUtilities.invokeLater(() -> {
+            if(ex != null) {
+                if(snapshot == null) {
+                    gui.showError("Kanalerna kunde inte hämtas.");
+                }
+            } else {
+                showChannels(found, "live data");
+                startPrefetch(found);
+            }
+        }));
+
+        executor = Executors.newScheduledThreadPool(1, runnable -> {
+            Thread thread = new Thread(runnable, "RadioInfo-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshScheduler = new RefreshScheduler(model.getScheduleIndex(), model.getScheduleCache(),
+                Clock.systemUTC(), executor, (id, fetch) -> {
+            try {
+                if(fetch) {
                     updateEpisodes();
-                } catch (Exception e) {
-                    e.printStackTrace();
+                } else {
+                    showLoadedEpisodes();
                 }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+        updateEpisodes();
+    }
+
+    /**
+     * Will show the channels and schedules from a saved
+     * snapshot. The schedules are also put in the cache, so
+     * the ones that are still fresh are not fetched again,
+     * and in the schedule index.
+     * Must be called on the Event Dispatch Thread.
+     *
+     * @param snapshot  The snapshot.
+     */
+    private void restoreSnapshot(Snapshot snapshot) {
+        ArrayList<Episode> lastEpisodes = new ArrayList<>();
+        for(ScheduleCache.Entry schedule : snapshot.getSchedules()) {
+            model.getScheduleCache().put(schedule.getChannelId(), schedule.getDate(),
+                    schedule.getEpisodes(), schedule.getFetchedAt());
+            model.getScheduleIndex().update(schedule.getChannelId(), schedule.getEpisodes());
+            model.updateSearchIndex(schedule.getChannelId(), schedule.getDate(), schedule.getEpisodes());
+            if(schedule.getChannelId().equals(snapshot.getLastChannelId())) {
+                lastEpisodes.addAll(schedule.getEpisodes());
             }
-        }, 0, 1, TimeUnit.HOURS);
+        }
+
+        showChannels(snapshot.getChannels(), "snapshot");
+        for(Channel saved : snapshot.getChannels()) {
+            if(saved.getId().equals(snapshot.getLastChannelId())) {
+                channel = saved;
+                shownChannel = saved;
+                gui.showEpisodes(model.filterEpisodes(lastEpisodes));
+            }
+        }
+    }
+
+    /**
+     * Will put the channels in the channel menu. The first
+     * time this happens, the time since the program started
+     * is saved as the time to first interactive menu, and
+     * recorded in the metrics and as a flight recorder event.
+     * Must be called on the Event Dispatch Thread.
+     *
+     * @param found     The channels.
+     * @param source    Where the channels came from, for the event.
+     */
+    private void showChannels(List<Channel> found, String source) {
+        channels = new ArrayList<>(found);
+        gui.addChannelButtons(channels);
+        if(timeToInteractiveMillis < 0) {
+            timeToInteractiveMillis = (System.nanoTime() - startNanos) / 1_000_000;
+            Metrics.time("startup.channelMenu", startNanos);
+            RadioEvents.ChannelMenuEvent event = new RadioEvents.ChannelMenuEvent();
+            if(event.shouldCommit()) {
+                event.source = source;
+                event.channels = channels.size();
+                event.sinceStartMillis = timeToInteractiveMillis;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns how long it took from the start of the
+     * program until the channel menu could be used.
+     *
+     * @return  The time in milliseconds, or -1 if the menu is still empty.
+     */
+    public long getTimeToInteractiveMillis() {
+        return timeToInteractiveMillis;
+    }
+
+    /**
+     * Will save the channels, the recent schedules and the
+     * shown channel to the snapshot file in the background.
+     */
+    private void saveSnapshot() {
+        Channel current = channel;
+        List<Channel> known = channels;
+        LocalDate oldest = LocalDate.now().minusDays(1);
+        executor.execute(() -> {
+            List<ScheduleCache.Entry> recent = new ArrayList<>();
+            for(ScheduleCache.Entry schedule : model.getScheduleCache().getEntries()) {
+                if(!schedule.getDate().isBefore(oldest)) {
+                    recent.add(schedule);
+                }
+            }
+            try {
+                new Snapshot(known, recent, current != null ? current.getId() : null).save(snapshotFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
     }
 
 
@@ -73,39 +207,268 @@ public class Controller implements ActionListener {
      *
      * @param channel   The channel that is clicked.
      */
-    public synchronized void clickedChannel(Channel channel) {
+    public void clickedChannel(Channel channel) {
         this.channel = channel;
+        refreshScheduler.userActivity();
+        PrefetchService service = prefetch;
+        if(service != null) {
+            service.prioritize(channel);
+        }
         updateEpisodes();
     }
 
+    /**
+     * Will search the titles and descriptions of every
+     * loaded episode and show the best matches in the GUI.
+     * The search is fast enough to run on every key press.
+     * Must be called on the Event Dispatch Thread.
+     *
+     * @param query     What the user typed.
+     */
+    public void search(String query) {
+        refreshScheduler.userActivity();
+        List<SearchIndex.Hit> hits = model.getSearchIndex().search(query, SEARCH_RESULTS);
+        gui.showSearchResults(query, hits, channels);
+    }
+
+    /**
+     * Will show the channel of a search result.
+     *
+     * @param channelId     The channel ID.
+     */
+    public void clickedSearchResult(String channelId) {
+        for(Channel known : channels) {
+            if(known.getId().equals(channelId)) {
+                clickedChannel(known);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Will tell the refresh scheduler that the window
+     * was minimized or shown again.
+     *
+     * @param visible   True if the window is shown.
+     */
+    public void windowVisibilityChanged(boolean visible) {
+        refreshScheduler.setVisible(visible);
+    }
+
+    /**
+     * Will tell the refresh scheduler that the
+     * user is using the program.
+     */
+    public void userActivity() {
+        refreshScheduler.userActivity();
+    }
+
+    /**
+     * Will start fetching the schedules of every channel
+     * in the background, if the property radioinfo.prefetch
+     * is true. How many channels are fetched at a time and
+     * how many requests are sent per second can be set with
+     * radioinfo.prefetchThreads and radioinfo.prefetchRate.
+     *
+     * @param channels  All channels.
+     */
+    private void startPrefetch(List<Channel> channels) {
+        if(!Boolean.getBoolean("radioinfo.prefetch")) {
+            return;
+        }
+        int threads = Integer.getInteger("radioinfo.prefetchThreads", 4);
+        int rate = Integer.getInteger("radioinfo.prefetchRate", 10);
+
+        prefetch = new PrefetchService(model, threads, new RateLimiter(rate, rate), new PrefetchService.Listener() {
+            @Override
+            public void progress(int done, int total) {
+                SwingUtilities.invokeLater(() -> gui.showProgress("Förhämtar " + done + "/" + total));
+            }
+
+            @Override
+            public void finished(int total, int failed, long millis) {
+                SwingUtilities.invokeLater(() -> gui.showProgress(null));
+            }
+        });
+        prefetch.start(new ArrayList<>(channels));
+    }
+
     /**
      * Will update the GUI so that it displays
      * the correct episodes based on what channel
-     * is pressed.
-     * @throws IOException                      Something went wrong with retrieving the episodes.
-     * @throws ParserConfigurationException     Something went wrong with retrieving the episodes.
-     * @throws SAXException                     Something went wrong with retrieving the episodes.
-     * @throws TransformerException             Something went wrong with retrieving the episodes.
-     */
-    public synchronized void updateEpisodes() {
-        ArrayList<Episode> episodes;
-        try {
-            episodes = model.findAllEpisodesFromID(channel.getId());
-
-            gui.clearTable();
-
-            for(Episode episode : episodes) {
-                if(gui.isDetailedMode()) {
-                    gui.addProgramToTable(episode.getTitle(), episode.getStartTime(), episode.getEndTime(), episode.getDescription(), episode.getImage());
-                } else {
-                    gui.addProgramToTable(episode.getTitle(), episode.getStartTime(), episode.getEndTime());
+     * is pressed. The episodes are fetched in the
+     * background and shown on the Event Dispatch Thread.
+     * Every call gets a new generation, and a load that
+     * finishes after a newer one has started is dropped,
+     * so the latest click always wins. While the schedules
+     * of a newly chosen channel are read, the episodes are
+     * shown in batches as they come, and the finished list
+     * replaces them at the end. A channel that is already
+     * shown is only updated when its load is done.
+     * When the load is done, the next refresh is planned.
+     */
+    public void updateEpisodes() {
+        Channel current = channel;
+        if(current == null) {
+            return;
+        }
+
+        long token = generation.incrementAndGet();
+        CompletableFuture<ArrayList<Episode>> previous = currentLoad;
+        if(previous != null) {
+            previous.cancel(true);
+        }
+
+        long start = System.nanoTime();
+        EpisodeStream stream = new EpisodeStream(token, start);
+        CompletableFuture<ArrayList<Episode>> load = model.findAllEpisodesFromIDAsync(current.getId(),
+                current == shownChannel ? null : stream::offer);
+        currentLoad = load;
+        load.whenComplete((episodes, ex) -> SwingUtilities.invokeLater(() -> {
+            stream.close();
+            if(token != generation.get()) {
+                return;
+            }
+            if(ex != null) {
+                showError();
+            } else {
+                showEpisodes(episodes);
+                shownChannel = current;
+                Metrics.time("refresh.complete", start);
+                saveSnapshot();
+            }
+            refreshScheduler.reschedule(current.getId());
+        }));
+    }
+
+    /**
+     * Will show the episodes of the current channel again
+     * from the schedules that are already loaded, so the
+     * timespan follows the clock without fetching anything.
+     * A load that is running is not disturbed.
+     */
+    private void showLoadedEpisodes() {
+        Channel current = channel;
+        if(current == null) {
+            return;
+        }
+
+        long token = generation.get();
+        ArrayList<Episode> episodes = model.findLoadedEpisodesFromID(current.getId());
+        SwingUtilities.invokeLater(() -> {
+            if(token == generation.get() && current == channel) {
+                showEpisodes(episodes);
+            }
+        });
+    }
+
+    /**
+     * Will put the episodes in the GUI table.
+     * Must be called on the Event Dispatch Thread.
+     *
+     * @param episodes  The episodes to show.
+     */
+    private void showEpisodes(ArrayList<Episode> episodes) {
+        gui.showEpisodes(episodes);
+    }
+
+    /**
+     * Will show in the GUI table that the episodes
+     * could not be found. Must be called on the
+     * Event Dispatch Thread.
+     */
+    private void showError() {
+        shownChannel = null;
+        gui.showMessage("Episodes could not be found.");
+    }
+
+    /**
+     * -------------------- EpisodeStream class --------------------
+     */
+    private final class EpisodeStream {
+        private static final int MAX_PENDING = 500;
+
+        private final long token;
+        private final long startNanos;
+        private boolean showing;
+        private ArrayList<Episode> pending = new ArrayList<>();
+        private boolean drainQueued;
+        private boolean closed;
+
+        /**
+         * Constructor. Takes the batches of one load from the
+         * fetch threads and shows them on the Event Dispatch
+         * Thread. At most one drain is queued at a time, and a
+         * fetch thread waits if the Event Dispatch Thread has
+         * fallen too far behind, so it is never flooded.
+         *
+         * @param token         The generation of the load.
+         * @param startNanos    When the load started.
+         */
+        private EpisodeStream(long token, long startNanos) {
+            this.token = token;
+            this.startNanos = startNanos;
+        }
+
+        /**
+         * Will queue a batch to be shown. Called on a
+         * fetch thread. Batches of a load that is no
+         * longer the latest are dropped.
+         *
+         * @param batch     The episodes.
+         */
+        private synchronized void offer(List<Episode> batch) {
+            try {
+                while(pending.size() >= MAX_PENDING && !closed && token == generation.get()) {
+                    wait(100);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if(closed || token != generation.get()) {
+                return;
+            }
+            pending.addAll(batch);
+            if(!drainQueued) {
+                drainQueued = true;
+                SwingUtilities.invokeLater(this::drain);
             }
-        } catch (IOException | ParserConfigurationException | SAXException e) {
-            gui.clearTable();
-            gui.addProgramToTable("Episodes could not be found.",
-                          "Episodes could not be found.",
-                          "Episodes could not be found.");
+        }
+
+        /**
+         * Will show every queued episode. The first drain
+         * replaces what the table showed before, and later
+         * ones only merge their batch into the rows. Must be
+         * called on the Event Dispatch Thread.
+         */
+        private void drain() {
+            ArrayList<Episode> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new ArrayList<>();
+                drainQueued = false;
+                notifyAll();
+            }
+            if(closed || token != generation.get() || batch.isEmpty()) {
+                return;
+            }
+            if(showing) {
+                gui.addEpisodes(batch);
+                return;
+            }
+            showing = true;
+            showEpisodes(batch);
+            Metrics.time("refresh.firstRow", startNanos);
+        }
+
+        /**
+         * Will stop showing batches, since the
+         * finished list is shown instead.
+         */
+        private synchronized void close() {
+            closed = true;
+            notifyAll();
         }
     }
 }
@@ -9,19 +9,28 @@
 /**
  * -------------------- Imports --------------------
  */
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
+import java.time.Instant;
+import java.time.OffsetDateTime;
 import java.time.format.DateTimeFormatter;
 
 /**
  * -------------------- Episode class --------------------
  */
 public class Episode {
-    private String title;
-    private String starttime;
-    private String endtime;
-    private String imageURL;
-    private String description;
+    private static final DateTimeFormatter DISPLAY_FORMAT = DateTimeFormatter.ofPattern("MM-dd HH:mm").withZone(Model.SWEDISH_ZONE);
+    private static final Metrics.Histogram CONVERSION_TIMER = Metrics.histogram("episode.convert");
+    private static final StringPool TEXT_POOL = new StringPool(Integer.getInteger("radioinfo.textPool", 20_000));
+
+    static {
+        Metrics.gauge("episode.pooled", TEXT_POOL::size);
+        Metrics.gauge("episode.poolHits", TEXT_POOL::getHits);
+    }
+
+    private final String title;
+    private final long startMillis;
+    private final long endMillis;
+    private final String imageURL;
+    private final String description;
 
     /**
      * Constructor. Used for gui Detailed mode.
@@ -33,13 +42,7 @@ public class Episode {
      * @param imageURL      Episode image.
      */
     public Episode(String description, String title, String starttime, String endTime, String imageURL) {
-        this.title = title;
-        this.starttime = starttime;
-        this.endtime = endTime;
-        this.imageURL = imageURL;
-        this.description = description;
-
-        convertToSwedishTime();
+        this(description, title, parseTime(starttime), parseTime(endTime), imageURL);
     }
 
     /**
@@ -51,12 +54,27 @@ public class Episode {
      * @param endTime       Episode end time.
      */
     public Episode(String description, String title, String starttime, String endTime) {
-        this.title = title;
-        this.starttime = starttime;
-        this.endtime = endTime;
-        this.description = description;
+        this(description, title, parseTime(starttime), parseTime(endTime), null);
+    }
 
-        convertToSwedishTime();
+    /**
+     * Constructor. Used when the times are
+     * already known as instants. The texts are
+     * shared with other episodes that have the
+     * same texts.
+     *
+     * @param description   Episode description.
+     * @param title         Episode title.
+     * @param startMillis   Episode start time in epoch milliseconds.
+     * @param endMillis     Episode end time in epoch milliseconds.
+     * @param imageURL      Episode image, or null.
+     */
+    public Episode(String description, String title, long startMillis, long endMillis, String imageURL) {
+        this.title = TEXT_POOL.intern(title);
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.imageURL = TEXT_POOL.intern(imageURL);
+        this.description = TEXT_POOL.intern(description);
     }
 
     /**
@@ -86,35 +104,54 @@ public class Episode {
     }
 
     /**
-     * Returns episode start time.
+     * Returns episode start time in
+     * swedish time, as "MM-dd HH:mm".
      *
      * @return  Episode start time.
      */
     public String getStartTime() {
-        return starttime;
+        return DISPLAY_FORMAT.format(Instant.ofEpochMilli(startMillis));
     }
 
     /**
-     * Returns episode end time.
+     * Returns episode end time in
+     * swedish time, as "MM-dd HH:mm".
      *
      * @return  Episode end time.
      */
     public String getEndTime() {
-        return endtime;
+        return DISPLAY_FORMAT.format(Instant.ofEpochMilli(endMillis));
     }
 
     /**
-     * Will converts the episodes start time and
-     * end time to local swedish time.
+     * Returns episode start time.
+     *
+     * @return  Epoch milliseconds.
      */
-    private void convertToSwedishTime() {
-        ZonedDateTime zdtStart = ZonedDateTime.parse(starttime);
-        ZonedDateTime zdtEnd = ZonedDateTime.parse(endtime);
+    public long getStartMillis() {
+        return startMillis;
+    }
 
-        ZonedDateTime zdtStartLocal = zdtStart.withZoneSameLocal(ZoneId.of("Europe/Stockholm"));
-        ZonedDateTime zdtEndLocal = zdtEnd.withZoneSameLocal(ZoneId.of("Europe/Stockholm"));
+    /**
+     * Returns episode end time.
+     *
+     * @return  Epoch milliseconds.
+     */
+    public long getEndMillis() {
+        return endMillis;
+    }
 
-        endtime = zdtEndLocal.format(DateTimeFormatter.ofPattern("MM-dd HH:mm"));
-        starttime = zdtStartLocal.format(DateTimeFormatter.ofPattern("MM-dd HH:mm"));
+    /**
+     * Will turn a time from Sveriges radio, like
+     * "2025-01-26T05:00:00Z", into epoch milliseconds.
+     *
+     * @param time  The time.
+     * @return      The time in epoch milliseconds.
+     */
+    private static long parseTime(String time) {
+        long start = System.nanoTime();
+        long millis = OffsetDateTime.parse(time).toInstant().toEpochMilli();
+        CONVERSION_TIMER.record(System.nanoTime() - start);
+        return millis;
     }
 }
@@ -0,0 +1,442 @@
+/**
+ * The table model for the episode table in the
+ * RadioInfo program. It holds the episodes themselves
+ * and reads every cell from them when the table asks.
+ * A new schedule only fires events for the rows that
+ * actually changed.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * -------------------- EpisodeTableModel class --------------------
+ */
+public class EpisodeTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+
+    public static final int TITLE_COLUMN = 0;
+    public static final int START_COLUMN = 1;
+    public static final int END_COLUMN = 2;
+    public static final int DESCRIPTION_COLUMN = 3;
+    public static final int IMAGE_COLUMN = 4;
+
+    private static final String[] COLUMN_NAMES = {"Program", "Starttid", "Sluttid", "Beskrivning", "Bild"};
+    private static final int LIGHT_COLUMNS = 3;
+    private static final String LOADING_IMAGE = "Laddar bild...";
+    private static final String NO_IMAGE = "Ingen bild";
+    private static final long IMAGE_RETRY_MILLIS = 5 * 60 * 1000;
+
+    private final ThumbnailLoader thumbnails;
+    private List<Episode> episodes = new ArrayList<>();
+    private String message;
+    private boolean detailedMode = true;
+    private final Set<String> loadingImages = new HashSet<>();
+    private final Map<String, Long> failedImages = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param thumbnails    Where the episode images are loaded from.
+     */
+    public EpisodeTableModel(ThumbnailLoader thumbnails) {
+        this.thumbnails = thumbnails;
+    }
+
+    /**
+     * Will replace the episodes in the table with new ones.
+     * The new list is compared to the one shown, matching
+     * episodes by start time and title, and only the rows
+     * that were added, removed or changed get a table event.
+     * Rows that are the same keep their selection and state.
+     * When more than half of the rows change, the list is
+     * swapped and the table told once that all data changed.
+     *
+     * @param fresh     The episodes to show.
+     * @return          How many rows were inserted, deleted or updated.
+     */
+    public int setEpisodes(List<Episode> fresh) {
+        RadioEvents.TableUpdateEvent event = new RadioEvents.TableUpdateEvent();
+        event.begin();
+        long start = System.nanoTime();
+        forgetOldFailures();
+        int touched = replaceEpisodes(fresh);
+        Metrics.time("table.update", start);
+        Metrics.histogram("refresh.episodes").record(fresh.size());
+        Metrics.histogram("refresh.rowsTouched").record(touched);
+        if(event.shouldCommit()) {
+            event.episodes = fresh.size();
+            event.touched = touched;
+            event.commit();
+        }
+        return touched;
+    }
+
+    /**
+     * Will add a batch of episodes to the ones in the table,
+     * like when a schedule is shown while it is still being
+     * read. Only the batch is sorted, and it is merged into
+     * the rows in one pass. An episode that is already shown
+     * is replaced. A table showing a message is replaced by
+     * the batch.
+     *
+     * @param batch     The episodes to add.
+     * @return          How many rows were inserted or updated.
+     */
+    public int addEpisodes(List<Episode> batch) {
+        if(message != null || episodes.isEmpty()) {
+            return setEpisodes(batch);
+        }
+
+        long start = System.nanoTime();
+        List<Episode> sorted = new ArrayList<>(batch);
+        sorted.sort(EpisodeTableModel::compareKeys);
+        List<Episode> merged = new ArrayList<>(episodes.size() + sorted.size());
+        List<int[]> inserted = new ArrayList<>();
+        List<Integer> updated = new ArrayList<>();
+        int row = 0;
+        for(Episode incoming : sorted) {
+            while(row < episodes.size() && compareKeys(episodes.get(row), incoming) < 0) {
+                merged.add(episodes.get(row++));
+            }
+            int previous = merged.size() - 1;
+            if(previous >= 0 && compareKeys(merged.get(previous), incoming) == 0) {
+                // The same episode twice in the batch, the later one wins
+                int[] last = inserted.isEmpty() ? null : inserted.get(inserted.size() - 1);
+                if((last == null || last[1] != previous) && !updated.contains(previous)
+                        && !sameContent(merged.get(previous), incoming)) {
+                    updated.add(previous);
+                }
+                merged.set(previous, incoming);
+                continue;
+            }
+            if(row < episodes.size() && compareKeys(episodes.get(row), incoming) == 0) {
+                if(!sameContent(episodes.get(row), incoming)) {
+                    updated.add(merged.size());
+                }
+                merged.add(incoming);
+                row++;
+                continue;
+            }
+            int at = merged.size();
+            int[] last = inserted.isEmpty() ? null : inserted.get(inserted.size() - 1);
+            if(last != null && last[1] == at - 1) {
+                last[1] = at;
+            } else {
+                inserted.add(new int[] {at, at});
+            }
+            merged.add(incoming);
+        }
+        merged.addAll(episodes.subList(row, episodes.size()));
+        episodes = merged;
+
+        // In order, so every event is right for the rows before it
+        int touched = updated.size();
+        for(int[] run : inserted) {
+            fireTableRowsInserted(run[0], run[1]);
+            touched += run[1] - run[0] + 1;
+        }
+        for(int updatedRow : updated) {
+            fireTableRowsUpdated(updatedRow, updatedRow);
+        }
+        Metrics.time("table.update", start);
+        return touched;
+    }
+
+    /**
+     * Will do the work of setEpisodes().
+     *
+     * @param fresh     The episodes to show.
+     * @return          How many rows were inserted, deleted or updated.
+     */
+    private int replaceEpisodes(List<Episode> fresh) {
+        List<Episode> sorted = new ArrayList<>(fresh);
+        sorted.sort(EpisodeTableModel::compareKeys);
+
+        if(message != null) {
+            episodes = sorted;
+            message = null;
+            fireTableDataChanged();
+            return sorted.size() + 1;
+        }
+
+        int changes = countChanges(sorted);
+        if(!episodes.isEmpty() && changes * 2 > Math.max(episodes.size(), sorted.size())) {
+            episodes = sorted;
+            fireTableDataChanged();
+            return changes;
+        }
+
+        int touched = 0;
+        int row = 0;
+        int next = 0;
+        while(next < sorted.size()) {
+            if(row >= episodes.size()) {
+                int count = sorted.size() - next;
+                episodes.addAll(sorted.subList(next, sorted.size()));
+                fireTableRowsInserted(row, row + count - 1);
+                return touched + count;
+            }
+
+            Episode shown = episodes.get(row);
+            Episode incoming = sorted.get(next);
+            int order = compareKeys(shown, incoming);
+            if(order < 0) {
+                episodes.remove(row);
+                fireTableRowsDeleted(row, row);
+                touched++;
+            } else if(order > 0) {
+                episodes.add(row, incoming);
+                fireTableRowsInserted(row, row);
+                touched++;
+                row++;
+                next++;
+            } else {
+                if(!sameContent(shown, incoming)) {
+                    episodes.set(row, incoming);
+                    fireTableRowsUpdated(row, row);
+                    touched++;
+                }
+                row++;
+                next++;
+            }
+        }
+
+        if(row < episodes.size()) {
+            int count = episodes.size() - row;
+            episodes.subList(row, episodes.size()).clear();
+            fireTableRowsDeleted(row, row + count - 1);
+            touched += count;
+        }
+        return touched;
+    }
+
+    /**
+     * Will count how many rows replaceEpisodes() would insert,
+     * delete or update, without changing anything. When most
+     * rows change, like when another channel is shown, the
+     * whole list is swapped with one event instead, since every
+     * single-row event moves the rows after it.
+     *
+     * @param sorted    The episodes to show, sorted by key.
+     * @return          How many rows would be touched.
+     */
+    private int countChanges(List<Episode> sorted) {
+        int changes = 0;
+        int row = 0;
+        int next = 0;
+        while(row < episodes.size() && next < sorted.size()) {
+            int order = compareKeys(episodes.get(row), sorted.get(next));
+            if(order < 0) {
+                row++;
+                changes++;
+            } else if(order > 0) {
+                next++;
+                changes++;
+            } else {
+                if(!sameContent(episodes.get(row), sorted.get(next))) {
+                    changes++;
+                }
+                row++;
+                next++;
+            }
+        }
+        return changes + (episodes.size() - row) + (sorted.size() - next);
+    }
+
+    /**
+     * Will order two episodes by start time, and
+     * by title if they start at the same time.
+     *
+     * @param first     The first episode.
+     * @param second    The second episode.
+     * @return          Negative, zero or positive like compareTo.
+     */
+    private static int compareKeys(Episode first, Episode second) {
+        int order = Long.compare(first.getStartMillis(), second.getStartMillis());
+        if(order != 0) {
+            return order;
+        }
+        return Objects.compare(first.getTitle(), second.getTitle(),
+                Comparator.nullsFirst(Comparator.naturalOrder()));
+    }
+
+    /**
+     * Will check if two episodes with the same key
+     * would show the same thing in every cell.
+     *
+     * @param first     The first episode.
+     * @param second    The second episode.
+     * @return          True if nothing differs.
+     */
+    private static boolean sameContent(Episode first, Episode second) {
+        return first.getEndMillis() == second.getEndMillis()
+                && Objects.equals(first.getDescription(), second.getDescription())
+                && Objects.equals(first.getImage(), second.getImage());
+    }
+
+    /**
+     * Will clear the table and show a message
+     * in a single row instead.
+     *
+     * @param message   The message to show.
+     */
+    public void showMessage(String message) {
+        this.episodes = new ArrayList<>();
+        this.message = message;
+        fireTableDataChanged();
+    }
+
+    /**
+     * Will switch between detailed mode, which shows
+     * every column, and light mode, which only shows
+     * title, start time and end time.
+     *
+     * @param detailedMode  True for detailed mode.
+     */
+    public void setDetailedMode(boolean detailedMode) {
+        if(this.detailedMode != detailedMode) {
+            this.detailedMode = detailedMode;
+            fireTableStructureChanged();
+        }
+    }
+
+    /**
+     * Will check if the table is in detailed mode.
+     *
+     * @return  True if detailed, false if not.
+     */
+    public boolean isDetailedMode() {
+        return detailedMode;
+    }
+
+    /**
+     * Returns the episode shown in a row.
+     *
+     * @param row   The row.
+     * @return      The episode, or null if the row shows a message.
+     */
+    public Episode getEpisode(int row) {
+        return message != null ? null : episodes.get(row);
+    }
+
+    @Override
+    public int getRowCount() {
+        return message != null ? 1 : episodes.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return detailedMode ? COLUMN_NAMES.length : LIGHT_COLUMNS;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        if(message != null) {
+            return column < LIGHT_COLUMNS ? message : null;
+        }
+
+        Episode episode = episodes.get(row);
+        switch(column) {
+            case TITLE_COLUMN:
+                return episode.getTitle();
+            case START_COLUMN:
+                return episode.getStartTime();
+            case END_COLUMN:
+                return episode.getEndTime();
+            case DESCRIPTION_COLUMN:
+                return episode.getDescription();
+            case IMAGE_COLUMN:
+                return imageFor(episode.getImage());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Will return what the image cell should show. If the
+     * thumbnail is not loaded yet, it is loaded in the
+     * background and the cells that show it are updated
+     * when it is done. This way only the images of rows
+     * that are actually painted are downloaded. An image
+     * that failed is shown as missing for five minutes,
+     * and then tried again.
+     *
+     * @param image     The image URL.
+     * @return          The thumbnail, or a text if it is not there.
+     */
+    private Object imageFor(String image) {
+        if(image == null) {
+            return NO_IMAGE;
+        }
+        Long failedAt = failedImages.get(image);
+        if(failedAt != null) {
+            if(System.currentTimeMillis() - failedAt < IMAGE_RETRY_MILLIS) {
+                return NO_IMAGE;
+            }
+            failedImages.remove(image);
+        }
+        ImageIcon icon = thumbnails.getIfCached(image);
+        if(icon != null) {
+            return icon;
+        }
+        if(loadingImages.add(image)) {
+            thumbnails.load(image).whenComplete((loaded, ex) -> SwingUtilities.invokeLater(() -> {
+                loadingImages.remove(image);
+                if(loaded == null) {
+                    failedImages.put(image, System.currentTimeMillis());
+                }
+                imageLoaded(image);
+            }));
+        }
+        return LOADING_IMAGE;
+    }
+
+    /**
+     * Will forget the images that failed so long ago that
+     * they should be tried again. Called when new episodes
+     * are shown, so the set does not grow for as long as
+     * the program runs.
+     */
+    private void forgetOldFailures() {
+        long now = System.currentTimeMillis();
+        failedImages.values().removeIf(failedAt -> now - failedAt >= IMAGE_RETRY_MILLIS);
+    }
+
+    /**
+     * Will tell the table that every row showing
+     * an image needs to be painted again.
+     *
+     * @param image     The image URL.
+     */
+    private void imageLoaded(String image) {
+        if(!detailedMode || message != null) {
+            return;
+        }
+        for(int row = 0; row < episodes.size(); row++) {
+            if(image.equals(episodes.get(row).getImage())) {
+                fireTableCellUpdated(row, IMAGE_COLUMN);
+            }
+        }
+    }
+}
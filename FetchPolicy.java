@@ -0,0 +1,357 @@
+/**
+ * A transport for the RadioInfo program that wraps
+ * another one and makes sure a fetch never takes
+ * forever. Failed requests are tried again with a
+ * growing, random delay, as long as there is time
+ * left in the budget of the request, and every attempt
+ * is only given what is left. A circuit breaker
+ * makes every request fail right away while Sveriges
+ * radio is down, so the Model can show what it has
+ * in its cache instead.
+ *
+ * Only GET requests go through a transport, so every
+ * request is safe to send again.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * -------------------- FetchPolicy class --------------------
+ */
+public class FetchPolicy implements Transport {
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_DELAY_MILLIS = 200;
+    private static final long MAX_DELAY_MILLIS = 2_000;
+    private static final long BUDGET_MILLIS = 10_000;
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MILLIS = 30_000;
+    private static final int DRAIN_BYTES = 16 * 1024;
+
+    private final Transport transport;
+    private final CircuitBreaker breaker;
+    private final int maxAttempts;
+    private final long budgetMillis;
+
+    /**
+     * Constructor. Uses the default retries and breaker.
+     *
+     * @param transport     The transport that does the fetching.
+     */
+    public FetchPolicy(Transport transport) {
+        this(transport, new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS), MAX_ATTEMPTS, BUDGET_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param transport     The transport that does the fetching.
+     * @param breaker       The circuit breaker to use.
+     * @param maxAttempts   How many times a request may be sent.
+     * @param budgetMillis  How long all attempts together may take.
+     */
+    public FetchPolicy(Transport transport, CircuitBreaker breaker, int maxAttempts, long budgetMillis) {
+        this.transport = transport;
+        this.breaker = breaker;
+        this.maxAttempts = maxAttempts;
+        this.budgetMillis = budgetMillis;
+        Metrics.gauge("breaker.open", () -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+    }
+
+    /**
+     * Will fetch a resource, and try again if it fails
+     * in a way that might go away. Answers like 404 are
+     * not tried again. No attempt is started if its delay
+     * would end after the budget.
+     *
+     * @param url           The URL to fetch.
+     * @param validators    The validators of the copy the caller has, or null.
+     * @return              The response.
+     * @throws IOException  Every attempt failed, or the breaker is open.
+     */
+    @Override
+    public Response get(String url, Validators validators) throws IOException {
+        return get(url, validators, Duration.ofMillis(budgetMillis));
+    }
+
+    /**
+     * Will fetch a resource like get(url, validators), with
+     * a budget that is never longer than the timeout. Each
+     * attempt is given what is left of the budget, both to
+     * wait for the response and to read its body.
+     *
+     * @param url           The URL to fetch.
+     * @param validators    The validators of the copy the caller has, or null.
+     * @param timeout       How long all attempts together may take.
+     * @return              The response.
+     * @throws IOException  Every attempt failed, or the breaker is open.
+     */
+    @Override
+    public Response get(String url, Validators validators, Duration timeout) throws IOException {
+        long deadline = System.nanoTime() + Math.min(budgetMillis * 1_000_000L, timeout.toNanos());
+        for(int attempt = 1; ; attempt++) {
+            long left = deadline - System.nanoTime();
+            if(left <= 0) {
+                throw new SocketTimeoutException("No time left to fetch " + url);
+            }
+            if(!breaker.allowRequest()) {
+                Metrics.counter("fetch.rejected").increment();
+                throw new IOException("Sveriges radio is not answering, not fetching " + url);
+            }
+
+            try {
+                Response response = transport.get(url, validators, Duration.ofNanos(left));
+                if(response.isNotModified()) {
+                    breaker.recordSuccess();
+                    return response;
+                }
+                return Response.of(new GuardedInputStream(response.getBody()), response.getValidators());
+            } catch (IOException e) {
+                if(isCancelled(e)) {
+                    breaker.recordAbandoned();
+                    throw e;
+                }
+                if(e instanceof InterruptedIOException) {
+                    breaker.recordFailure();
+                    throw e;
+                }
+                boolean retryable = !(e instanceof HttpStatusException) || ((HttpStatusException) e).isRetryable();
+                if(retryable) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
+
+                long delay = delayMillis(attempt);
+                if(!retryable || attempt >= maxAttempts
+                        || System.nanoTime() + delay * 1_000_000L >= deadline) {
+                    throw e;
+                }
+                Metrics.counter("fetch.retries").increment();
+                sleep(delay, e);
+            }
+        }
+    }
+
+    /**
+     * Will check if a fetch failed because the caller gave
+     * up on it, and not because of Sveriges radio. Such a
+     * failure says nothing about the server, so it is not
+     * counted by the breaker and not tried again.
+     *
+     * @param e     Why the fetch failed.
+     * @return      True if the fetch was cancelled.
+     */
+    private static boolean isCancelled(IOException e) {
+        return Thread.currentThread().isInterrupted()
+                || (e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException));
+    }
+
+    /**
+     * Returns the circuit breaker.
+     *
+     * @return  The breaker.
+     */
+    public CircuitBreaker getBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Will pick how long to wait before an attempt. The
+     * limit doubles for every attempt, and the delay is
+     * random up to the limit so clients that failed at the
+     * same time do not all try again at the same time.
+     *
+     * @param attempt   The attempt that just failed, starting at 1.
+     * @return          The delay in milliseconds.
+     */
+    private static long delayMillis(int attempt) {
+        long limit = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(limit + 1);
+    }
+
+    /**
+     * Will wait before the next attempt.
+     *
+     * @param millis    How long to wait.
+     * @param failure   Why the last attempt failed.
+     * @throws IOException  The thread was interrupted while waiting.
+     */
+    private static void sleep(long millis, IOException failure) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting to retry.");
+            interrupted.addSuppressed(failure);
+            throw interrupted;
+        }
+    }
+
+    /**
+     * -------------------- GuardedInputStream class --------------------
+     */
+    private final class GuardedInputStream extends FilterInputStream {
+        private boolean reported;
+        private volatile boolean reading;
+        private volatile Thread reader;
+
+        /**
+         * Constructor. A body that fails while it is read
+         * counts as a failure for the breaker, one that is
+         * read to the end counts as a success. A body that
+         * is closed before the end, or that fails because the
+         * caller gave up on it, counts as neither.
+         *
+         * @param in    The response body.
+         */
+        private GuardedInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            reader = Thread.currentThread();
+            reading = true;
+            try {
+                int b = super.read();
+                if(b < 0) {
+                    report(true);
+                }
+                return b;
+            } catch (IOException e) {
+                failed(e);
+                throw e;
+            } finally {
+                reading = false;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            reader = Thread.currentThread();
+            reading = true;
+            try {
+                int n = super.read(buffer, offset, length);
+                if(n < 0) {
+                    report(true);
+                }
+                return n;
+            } catch (IOException e) {
+                failed(e);
+                throw e;
+            } finally {
+                reading = false;
+            }
+        }
+
+        /**
+         * Will close the body. Parsers often stop at the end
+         * of the document without reading to the end of the
+         * stream, so a little of what is left is read first to
+         * find out if the body was whole. A body closed by
+         * another thread than the one reading it, like when the
+         * fetch is aborted, or with more left than that, was
+         * given up on and tells the breaker nothing.
+         *
+         * @throws IOException  The body could not be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                Thread owner = reader;
+                if(!isReported() && !reading && (owner == null || owner == Thread.currentThread())) {
+                    drain();
+                }
+            } finally {
+                abandon();
+                super.close();
+            }
+        }
+
+        /**
+         * Will tell the breaker that reading the body failed,
+         * unless it failed because the fetch was cancelled.
+         *
+         * @param e     Why reading failed.
+         */
+        private void failed(IOException e) {
+            if(isCancelled(e)) {
+                abandon();
+            } else {
+                report(false);
+            }
+        }
+
+        /**
+         * Will read and throw away what is left of the
+         * body, up to a limit.
+         */
+        private void drain() {
+            byte[] buffer = new byte[1024];
+            int left = DRAIN_BYTES;
+            try {
+                while(left > 0) {
+                    int n = read(buffer, 0, Math.min(buffer.length, left));
+                    if(n < 0) {
+                        return;
+                    }
+                    left -= n;
+                }
+            } catch (IOException e) {
+                // read() has already told the breaker.
+            }
+        }
+
+        /**
+         * Returns if the breaker has been told how the body went.
+         *
+         * @return  True if it has.
+         */
+        private synchronized boolean isReported() {
+            return reported;
+        }
+
+        /**
+         * Will tell the breaker how the body went,
+         * only the first time.
+         *
+         * @param success   True if the body could be read.
+         */
+        private synchronized void report(boolean success) {
+            if(reported) {
+                return;
+            }
+            reported = true;
+            if(success) {
+                breaker.recordSuccess();
+            } else {
+                breaker.recordFailure();
+            }
+        }
+
+        /**
+         * Will tell the breaker that the body was given up
+         * on, unless it has been told how the body went.
+         */
+        private synchronized void abandon() {
+            if(reported) {
+                return;
+            }
+            reported = true;
+            breaker.recordAbandoned();
+        }
+    }
+}
@@ -12,12 +12,20 @@
  */
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.plaf.basic.BasicHTML;
 import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.text.View;
 import java.awt.*;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.ArrayList;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -25,20 +33,26 @@ import java.util.Objects;
  */
 
 public class GUI {
+    private static final int MAX_ROW_HEIGHT = 160;
+
     private JButton button;
     private JMenuBar menuBar;
     private JMenu menu;
     private Controller controller;
     private JPanel episodePanel;
-    private DefaultTableModel tableModel;
+    private EpisodeTableModel tableModel;
     private JTable jTable1;
-    private boolean detailedMode = true;
     private JMenu modeMenu;
     private JPanel panel;
     private JFrame frame;
     private JScrollPane scrollPane;
     private JScrollPane scrollTable;
     private JMenuItem lightModeItem;
+    private JLabel statusBar;
+    private JTextField searchField;
+    private JPopupMenu searchResults;
+    private Timer statusTimer;
+    private final ThumbnailLoader thumbnails = new ThumbnailLoader();
 
     /**
      * Constructor.
@@ -55,6 +69,7 @@ public class GUI {
         buildTable();
         buildPanel();
         buildEpisodePanel();
+        buildStatusBar();
         buildMenuBar();
         buildFrame();
     }
@@ -70,6 +85,7 @@ public class GUI {
         button.addActionListener(e -> {
             if (controller != null) {
                 try {
+                    controller.userActivity();
                     controller.updateEpisodes();
                 } catch (Exception ex) {
                     JOptionPane.showMessageDialog(frame, "Något gick fel: " + ex.getMessage(), "Fel", JOptionPane.ERROR_MESSAGE);
@@ -96,24 +112,51 @@ public class GUI {
      * a menu. Each menuitem/mode that is added to
      * the menu will also have an actionListener that
      * checks when it is pressed. When one of them is pressed,
-     * the controller will change the mode of the program and
-     * update the episode list.
+     * the table will change which columns it shows. The
+     * episodes already in the table are kept.
      */
     private void modeMenuItems() {
         lightModeItem = new JMenuItem("Lätt");
-        lightModeItem.addActionListener(e -> {
-            detailedMode = false;
-            controller.updateEpisodes();
-
-        });
+        lightModeItem.addActionListener(e -> setDetailedMode(false));
         JMenuItem detailedModeItem = new JMenuItem("Detaljerad");
-        detailedModeItem.addActionListener(e -> {
-            detailedMode = true;
-            controller.updateEpisodes();
-
-        });
+        detailedModeItem.addActionListener(e -> setDetailedMode(true));
         modeMenu.add(lightModeItem);
         modeMenu.add(detailedModeItem);
+
+        JCheckBoxMenuItem statusItem = new JCheckBoxMenuItem("Statistik", statusBar.isVisible());
+        statusItem.addActionListener(e -> showStatusBar(statusItem.isSelected()));
+        modeMenu.addSeparator();
+        modeMenu.add(statusItem);
+    }
+
+    /**
+     * Will build the status bar that shows live numbers
+     * from the metrics registry. It is hidden unless the
+     * property radioinfo.statusBar is true, and can be
+     * turned on and off from the mode menu.
+     */
+    private void buildStatusBar() {
+        statusBar = new JLabel(" ");
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 30, 2, 30));
+        statusBar.setFont(statusBar.getFont().deriveFont(11f));
+        statusTimer = new Timer(1000, e -> statusBar.setText(Metrics.statusLine()));
+        showStatusBar(Boolean.getBoolean("radioinfo.statusBar"));
+    }
+
+    /**
+     * Will show or hide the status bar. The status
+     * bar is only updated while it is shown.
+     *
+     * @param visible   True to show it.
+     */
+    private void showStatusBar(boolean visible) {
+        statusBar.setVisible(visible);
+        if(visible) {
+            statusBar.setText(Metrics.statusLine());
+            statusTimer.start();
+        } else {
+            statusTimer.stop();
+        }
     }
 
     /**
@@ -121,19 +164,53 @@ public class GUI {
      * all episodes.
      */
     private void buildTable() {
-        tableModel = new DefaultTableModel(new Object[]{"Program", "Starttid", "Sluttid", "Beskrivning", "Bild"}, 0);
-        jTable1 = new JTable(tableModel);
-        jTable1.getColumnModel().getColumn(4).setCellRenderer(new ImageTextRenderer());
+        tableModel = new EpisodeTableModel(thumbnails);
+        // Listeners are told in the reverse order they were added, so this
+        // one must be added before the table's own to run after it.
+        tableModel.addTableModelListener(this::fitChangedRows);
+        jTable1 = new JTable(tableModel) {
+            @Override
+            protected void paintComponent(Graphics g) {
+                long start = System.nanoTime();
+                super.paintComponent(g);
+                Metrics.time("table.paint", start);
+            }
+        };
         scrollTable = new JScrollPane(jTable1);
 
         jTable1.setDefaultEditor(Objects.class, null);
         jTable1.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-        jTable1.getColumnModel().getColumn(3).setPreferredWidth(300);
-        jTable1.getColumnModel().getColumn(4).setPreferredWidth(100);
-        jTable1.setRowHeight(100);
 
-        fixTextNewLine(3);
-        fixTextNewLine(0);
+        configureColumns();
+    }
+
+    /**
+     * Will set the renderers and widths of the table
+     * columns. The table creates new columns every time
+     * the mode changes, so this is done again then.
+     */
+    private void configureColumns() {
+        if(tableModel.isDetailedMode()) {
+            jTable1.getColumnModel().getColumn(EpisodeTableModel.IMAGE_COLUMN).setCellRenderer(new ImageTextRenderer());
+            jTable1.getColumnModel().getColumn(EpisodeTableModel.DESCRIPTION_COLUMN).setPreferredWidth(300);
+            jTable1.getColumnModel().getColumn(EpisodeTableModel.IMAGE_COLUMN).setPreferredWidth(100);
+            fixTextNewLine(EpisodeTableModel.DESCRIPTION_COLUMN);
+        }
+        fixTextNewLine(EpisodeTableModel.TITLE_COLUMN);
+        updateRowHeights();
+    }
+
+    /**
+     * Will switch the table between detailed
+     * mode and light mode.
+     *
+     * @param detailedMode  True for detailed mode.
+     */
+    private void setDetailedMode(boolean detailedMode) {
+        if(tableModel.isDetailedMode() != detailedMode) {
+            tableModel.setDetailedMode(detailedMode);
+            configureColumns();
+        }
     }
 
     /**
@@ -144,17 +221,77 @@ public class GUI {
      * @param column    The column to be fixed.
      */
     private void fixTextNewLine(int column) {
-        jTable1.getColumnModel().getColumn(column).setCellRenderer(new DefaultTableCellRenderer() {
-            @Override
-            protected void setValue(Object value) {
-                if (value != null) {
-                    String text = "<html>" + value.toString().replace("\n", "<br>") + "</html>";
-                    setText(text);
-                } else {
-                    setText("");
+        jTable1.getColumnModel().getColumn(column).setCellRenderer(new WrappingTextRenderer());
+    }
+
+    /**
+     * Will give every row the height its text needs, and
+     * room for the image in detailed mode. This is done
+     * when the rows or columns change, not when painting.
+     */
+    private void updateRowHeights() {
+        fitRowHeights(jTable1, tableModel.isDetailedMode() ? ThumbnailLoader.SIZE : 0);
+    }
+
+    /**
+     * Will give the rows that were inserted or updated the
+     * height they need, so a new batch of episodes does not
+     * measure the rows that were already there. When all
+     * data changed every row is measured. A change of
+     * columns is left to configureColumns().
+     *
+     * @param e     The change of the table model.
+     */
+    private void fitChangedRows(TableModelEvent e) {
+        if(jTable1 == null || e.getType() == TableModelEvent.DELETE || e.getFirstRow() == TableModelEvent.HEADER_ROW) {
+            return;
+        }
+        int minimum = tableModel.isDetailedMode() ? ThumbnailLoader.SIZE : 0;
+        if(e.getLastRow() == Integer.MAX_VALUE) {
+            fitRowHeights(jTable1, minimum);
+        } else {
+            fitRowHeights(jTable1, minimum, e.getFirstRow(), e.getLastRow());
+        }
+    }
+
+    /**
+     * Will give every row of a table the height that its
+     * wrapped text needs, between a minimum and a maximum.
+     *
+     * @param table     The table.
+     * @param minimum   The smallest row height, 0 for the table's own row height.
+     */
+    static void fitRowHeights(JTable table, int minimum) {
+        fitRowHeights(table, minimum, 0, table.getRowCount() - 1);
+    }
+
+    /**
+     * Will give some rows of a table the height that their
+     * wrapped text needs, between a minimum and a maximum.
+     *
+     * @param table     The table.
+     * @param minimum   The smallest row height, 0 for the table's own row height.
+     * @param firstRow  The first row to measure.
+     * @param lastRow   The last row to measure.
+     */
+    static void fitRowHeights(JTable table, int minimum, int firstRow, int lastRow) {
+        int smallest = Math.max(minimum, table.getRowHeight());
+        int end = Math.min(lastRow, table.getRowCount() - 1);
+        for(int row = Math.max(0, firstRow); row <= end; row++) {
+            int height = smallest;
+            for(int column = 0; column < table.getColumnCount(); column++) {
+                TableCellRenderer renderer = table.getCellRenderer(row, column);
+                if(renderer instanceof WrappingTextRenderer) {
+                    Component component = table.prepareRenderer(renderer, row, column);
+                    int width = table.getColumnModel().getColumn(column).getPreferredWidth();
+                    height = Math.max(height, ((WrappingTextRenderer) component).preferredHeight(width));
                 }
             }
-        });
+            height = Math.min(height, MAX_ROW_HEIGHT);
+            if(table.getRowHeight(row) != height) {
+                table.setRowHeight(row, height);
+            }
+        }
     }
 
     /**
@@ -176,10 +313,97 @@ public class GUI {
         panel = new JPanel();
         panel.setBorder(BorderFactory.createEmptyBorder(30, 30, 10, 30));
         panel.setLayout(new BorderLayout());
+        panel.add(buildSearchPanel(), BorderLayout.NORTH);
         panel.add(button, BorderLayout.SOUTH);
         panel.add(scrollTable, BorderLayout.CENTER);
     }
 
+    /**
+     * Will build the search field. The search is done
+     * on every key press, and the results are shown in
+     * a list under the field that does not take the
+     * focus, so the user can keep typing.
+     *
+     * @return  The panel holding the search field.
+     */
+    private JPanel buildSearchPanel() {
+        searchField = new JTextField();
+        searchResults = new JPopupMenu();
+        searchResults.setFocusable(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                search();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                search();
+            }
+        });
+        searchField.addActionListener(e -> search());
+
+        JPanel searchPanel = new JPanel(new BorderLayout(5, 0));
+        searchPanel.setBorder(BorderFactory.createEmptyBorder(0, 0, 10, 0));
+        searchPanel.add(new JLabel("Sök:"), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
+        return searchPanel;
+    }
+
+    /**
+     * Will ask the controller to search for
+     * what is in the search field.
+     */
+    private void search() {
+        if(controller != null) {
+            controller.search(searchField.getText());
+        }
+    }
+
+    /**
+     * Will show the results of a search in a list under
+     * the search field. Choosing a result shows its channel.
+     *
+     * @param query     What was searched for.
+     * @param hits      The best matches.
+     * @param channels  All channels, to show the channel names.
+     */
+    public void showSearchResults(String query, List<SearchIndex.Hit> hits, List<Channel> channels) {
+        searchResults.setVisible(false);
+        searchResults.removeAll();
+        if(query.isBlank()) {
+            return;
+        }
+
+        Map<String, String> names = new HashMap<>();
+        for(Channel channel : channels) {
+            names.put(channel.getId(), channel.getName());
+        }
+        for(SearchIndex.Hit hit : hits) {
+            Episode episode = hit.getEpisode();
+            JMenuItem item = new JMenuItem(names.getOrDefault(hit.getChannelId(), hit.getChannelId())
+                    + "  " + episode.getStartTime() + "  " + episode.getTitle());
+            item.addActionListener(e -> {
+                searchResults.setVisible(false);
+                controller.clickedSearchResult(hit.getChannelId());
+            });
+            searchResults.add(item);
+        }
+        if(hits.isEmpty()) {
+            JMenuItem none = new JMenuItem("Inga träffar");
+            none.setEnabled(false);
+            searchResults.add(none);
+        }
+        if(searchField.isShowing()) {
+            searchResults.show(searchField, 0, searchField.getHeight());
+        }
+    }
+
     /**
      * Will build the main frame for the GUI.
      * Every other component is within this frame.
@@ -188,7 +412,30 @@ public class GUI {
         frame = new JFrame();
         frame.setJMenuBar(menuBar);
         frame.add(panel, BorderLayout.CENTER);
+        frame.add(statusBar, BorderLayout.SOUTH);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowIconified(WindowEvent e) {
+                if(controller != null) {
+                    controller.windowVisibilityChanged(false);
+                }
+            }
+
+            @Override
+            public void windowDeiconified(WindowEvent e) {
+                if(controller != null) {
+                    controller.windowVisibilityChanged(true);
+                }
+            }
+
+            @Override
+            public void windowActivated(WindowEvent e) {
+                if(controller != null) {
+                    controller.userActivity();
+                }
+            }
+        });
         frame.setTitle("RadioInfo");
         frame.setSize(715, 500);
         frame.setResizable(false);
@@ -208,11 +455,13 @@ public class GUI {
 
     /**
      * Will add every channel as its own button
-     * in the channel menu.
+     * in the channel menu. Channels that were in
+     * the menu before are removed.
      *
      * @param channels  All channels to be added.
      */
-    public void addChannelButtons(ArrayList<Channel> channels) {
+    public void addChannelButtons(List<Channel> channels) {
+        menu.removeAll();
         for (Channel channel : channels) {
             JMenuItem menuItem = new JMenuItem(channel.getName());
             menu.add(menuItem);
@@ -224,69 +473,65 @@ public class GUI {
     }
 
     /**
-     * Will check if this GUI is
-     * in detailed mode or not.
+     * Will show an error message in a dialog.
      *
-     * @return  True if detailed, false if not.
+     * @param message   The message to show.
      */
-    public boolean isDetailedMode() {
-        return detailedMode;
+    public void showError(String message) {
+        JOptionPane.showMessageDialog(frame, message, "Fel", JOptionPane.ERROR_MESSAGE);
     }
 
     /**
-     * Will take an episode from a channel and
-     * add it to the GUI so it is displayed.
-     * This method will be used in detailed mode.
+     * Will show how far a background job has come
+     * in the title of the frame.
      *
-     * @param program       The title of the episode.
-     * @param startTime     The starting time.
-     * @param endTime       The ending time.
-     * @param description   The episode description.
-     * @param image         The episodes image.
+     * @param progress  The progress text, or null to remove it.
      */
-    public void addProgramToTable(String program, String startTime, String endTime, String description, String image) {
-        try {
-            ImageIcon imageIcon = new ImageIcon(new URL(image));
-            imageIcon = resizeImage(imageIcon);
-            tableModel.addRow(new Object[]{program, startTime, endTime, description, imageIcon});
-        } catch (MalformedURLException ex) {
-            tableModel.addRow(new Object[]{program, startTime, endTime, description, "Ingen bild"});
-        }
+    public void showProgress(String progress) {
+        frame.setTitle(progress == null ? "RadioInfo" : "RadioInfo - " + progress);
     }
 
     /**
-     * Will resize an image so it fits
-     * the GUI.
+     * Will check if this GUI is
+     * in detailed mode or not.
      *
-     * @param icon  The image to be resized.
-     * @return      The resized image.
+     * @return  True if detailed, false if not.
      */
-    public ImageIcon resizeImage(ImageIcon icon) {
-        int width = 100;
-        int height = 100;
-        Image img = icon.getImage().getScaledInstance(width, height, Image.SCALE_SMOOTH);
-        return new ImageIcon(img);
+    public boolean isDetailedMode() {
+        return tableModel.isDetailedMode();
     }
 
     /**
-     * Will add an episode to the GUI
-     * so it is displayed.
-     * This method will be used in light mode.
+     * Will show a list of episodes in the table,
+     * replacing the ones that were there before.
+     * Only rows that changed are updated.
      *
-     * @param program       The episodes title.
-     * @param startTime     The episodes starting time.
-     * @param endTime       The episodes ending time.
+     * @param episodes  The episodes to show.
+     * @return          How many rows were touched.
      */
-    public void addProgramToTable(String program, String startTime, String endTime) {
-        tableModel.addRow(new Object[]{program, startTime, endTime});
+    public int showEpisodes(List<Episode> episodes) {
+        return tableModel.setEpisodes(episodes);
     }
 
     /**
-     * Will clear all episodes from the
-     * GUI so that its clean before new ones come.
+     * Will add a batch of episodes to the ones shown in
+     * the table. Only the batch is sorted and merged in.
+     *
+     * @param episodes  The episodes to add.
+     * @return          How many rows were touched.
      */
-    public void clearTable() {
-        tableModel.setRowCount(0);
+    public int addEpisodes(List<Episode> episodes) {
+        return tableModel.addEpisodes(episodes);
+    }
+
+    /**
+     * Will clear the table and show a message
+     * in it instead of episodes.
+     *
+     * @param message   The message to show.
+     */
+    public void showMessage(String message) {
+        tableModel.showMessage(message);
     }
 
     /**
@@ -294,18 +539,118 @@ public class GUI {
      * I found this solution online.
      *
      * https://stackoverflow.com/questions/4941372/how-to-insert-image-into-jtable-cell
+     *
+     * The renderer is itself a label, so the same
+     * component is used for every cell.
      */
-    private class ImageTextRenderer extends DefaultTableCellRenderer {
+    static class ImageTextRenderer extends DefaultTableCellRenderer {
+        private static final long serialVersionUID = 1L;
+
         @Override
         public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
             if(value instanceof ImageIcon) {
-                JLabel label = new JLabel((ImageIcon) value);
-                label.setHorizontalAlignment(JLabel.CENTER);
-                return label;
+                super.getTableCellRendererComponent(table, null, isSelected, hasFocus, row, column);
+                setIcon((ImageIcon) value);
+                setHorizontalAlignment(JLabel.CENTER);
+                return this;
             }
+            super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            setIcon(null);
+            setHorizontalAlignment(JLabel.LEADING);
+            return this;
+        }
+    }
+
+    /**
+     * -------------------- WrappingTextRenderer class --------------------
+     */
+    static class WrappingTextRenderer extends DefaultTableCellRenderer {
+        private static final long serialVersionUID = 1L;
+        private static final int CACHED_TEXTS = 4096;
+
+        private Map<String, View> views;
+        private Map<String, View> selectedViews;
+        private boolean selected;
+
+        /**
+         * Constructor. The renderer shows text that wraps
+         * around inside the cell. Swing only wraps HTML, and
+         * parsing the HTML on every paint is slow, so the parsed
+         * text is kept for each text that has been shown.
+         * Selected cells have their own copies since the text
+         * color is part of them.
+         */
+        WrappingTextRenderer() {
+            views = createCache();
+            selectedViews = createCache();
+        }
+
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            selected = isSelected;
             return super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
         }
+
+        @Override
+        protected void setValue(Object value) {
+            String text = value == null ? "" : value.toString();
+            if(text.isEmpty()) {
+                setText("");
+                return;
+            }
+
+            Map<String, View> cache = selected ? selectedViews : views;
+            View view = cache.get(text);
+            if(view == null) {
+                setText("<html>" + text.replace("\n", "<br>") + "</html>");
+                view = (View) getClientProperty(BasicHTML.propertyKey);
+                cache.put(text, view);
+            } else {
+                setText(text);
+                putClientProperty(BasicHTML.propertyKey, view);
+            }
+        }
+
+        @Override
+        public void updateUI() {
+            super.updateUI();
+            if(views != null) {
+                views.clear();
+                selectedViews.clear();
+            }
+        }
+
+        /**
+         * Returns how tall the current text is when
+         * it is wrapped to a width.
+         *
+         * @param width     The width of the cell.
+         * @return          The height.
+         */
+        int preferredHeight(int width) {
+            View view = (View) getClientProperty(BasicHTML.propertyKey);
+            if(view == null) {
+                return getPreferredSize().height;
+            }
+            Insets insets = getInsets();
+            view.setSize(Math.max(1, width - insets.left - insets.right), 0);
+            return (int) Math.ceil(view.getPreferredSpan(View.Y_AXIS)) + insets.top + insets.bottom;
+        }
+
+        /**
+         * Will create a cache that forgets the least
+         * recently shown text when it is full.
+         *
+         * @return  The cache.
+         */
+        private static Map<String, View> createCache() {
+            return new LinkedHashMap<>(256, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, View> eldest) {
+                    return size() > CACHED_TEXTS;
+                }
+            };
+        }
     }
 }
 
-
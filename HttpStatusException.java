@@ -0,0 +1,54 @@
+/**
+ * Thrown by the RadioInfo program when Sveriges radio
+ * answers with an HTTP status that is not a success.
+ * The status is kept so it can be decided if the
+ * request is worth trying again.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.io.IOException;
+
+/**
+ * -------------------- HttpStatusException class --------------------
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    /**
+     * Constructor.
+     *
+     * @param status    The HTTP status.
+     * @param url       The URL that was fetched.
+     */
+    public HttpStatusException(int status, String url) {
+        super("HTTP " + status + " from " + url);
+        this.status = status;
+    }
+
+    /**
+     * Returns the HTTP status.
+     *
+     * @return  The status.
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Will check if the server had a problem, which
+     * might go away if the request is sent again.
+     *
+     * @return  True for 5xx and 429.
+     */
+    public boolean isRetryable() {
+        return status >= 500 || status == 429;
+    }
+}
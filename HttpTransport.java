@@ -0,0 +1,246 @@
+/**
+ * The default transport for the RadioInfo program.
+ * It uses one shared HttpClient so connections are
+ * reused, asks for gzip, and sends the ETag and
+ * Last-Modified headers it is given so unchanged
+ * resources can be revalidated instead of downloaded
+ * again. Every
+ * request has deadlines for connecting, for the
+ * headers and for reading the body.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * -------------------- HttpTransport class --------------------
+ */
+public class HttpTransport implements Transport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+    private static final Duration READ_TIMEOUT = Duration.ofSeconds(20);
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RadioInfo-read-deadline");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final Duration readTimeout;
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    /**
+     * Constructor. Uses the default timeouts.
+     */
+    public HttpTransport() {
+        this(CONNECT_TIMEOUT, REQUEST_TIMEOUT, READ_TIMEOUT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param connectTimeout    How long connecting may take.
+     * @param requestTimeout    How long it may take until the response headers arrive.
+     * @param readTimeout       How long reading the body may take after that.
+     */
+    public HttpTransport(Duration connectTimeout, Duration requestTimeout, Duration readTimeout) {
+        this.requestTimeout = requestTimeout;
+        this.readTimeout = readTimeout;
+        client = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /**
+     * Will fetch a resource. If there are validators, the
+     * server is asked if it has changed, and a not modified
+     * response is returned if it has not.
+     *
+     * @param url           The URL to fetch.
+     * @param validators    The validators of the copy the caller has, or null.
+     * @return              The response, with the new validators if any.
+     * @throws IOException  The resource could not be fetched.
+     */
+    @Override
+    public Response get(String url, Validators validators) throws IOException {
+        return get(url, validators, requestTimeout.plus(readTimeout));
+    }
+
+    /**
+     * Will fetch a resource like get(url, validators), with
+     * deadlines that are never later than the timeout. The
+     * body may only be read for as long as is left of the
+     * timeout when the response headers have arrived.
+     *
+     * @param url           The URL to fetch.
+     * @param validators    The validators of the copy the caller has, or null.
+     * @param timeout       How long the whole fetch may take.
+     * @return              The response, with the new validators if any.
+     * @throws IOException  The resource could not be fetched in time.
+     */
+    @Override
+    public Response get(String url, Validators validators, Duration timeout) throws IOException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(min(requestTimeout, timeout))
+                .header("Accept-Encoding", "gzip")
+                .GET();
+
+        if(validators != null) {
+            if(validators.getEtag() != null) {
+                request.header("If-None-Match", validators.getEtag());
+            }
+            if(validators.getLastModified() != null) {
+                request.header("If-Modified-Since", validators.getLastModified());
+            }
+        }
+
+        RadioEvents.FetchEvent event = new RadioEvents.FetchEvent();
+        event.begin();
+        long start = System.nanoTime();
+        HttpResponse<InputStream> response;
+        try {
+            response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while fetching " + url);
+            interrupted.initCause(e);
+            throw interrupted;
+        } finally {
+            Metrics.time("http.request", start);
+            Metrics.counter("http.requests").increment();
+        }
+
+        int status = response.statusCode();
+        if(event.shouldCommit()) {
+            event.url = url;
+            event.status = status;
+            event.commit();
+        }
+        if(status == 304 && validators != null) {
+            Metrics.counter("http.notModified").increment();
+            response.body().close();
+            return Response.notModified();
+        }
+        if(status < 200 || status >= 300) {
+            response.body().close();
+            throw new HttpStatusException(status, url);
+        }
+
+        String etag = response.headers().firstValue("ETag").orElse(null);
+        String lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+        Duration left = Duration.ofNanos(Math.max(1, deadline - System.nanoTime()));
+        InputStream body = new CountingInputStream(response.body(), min(readTimeout, left));
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if(encoding.equalsIgnoreCase("gzip")) {
+            body = new GZIPInputStream(body);
+        }
+        return Response.of(body, etag != null || lastModified != null ? new Validators(etag, lastModified) : null);
+    }
+
+    /**
+     * Returns the shorter of two durations.
+     *
+     * @param a     One duration.
+     * @param b     The other duration.
+     * @return      The shorter one.
+     */
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    /**
+     * Returns how many bytes have been received over
+     * the network, before decompression.
+     *
+     * @return  The number of bytes.
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * -------------------- CountingInputStream class --------------------
+     */
+    private final class CountingInputStream extends FilterInputStream {
+        private final ScheduledFuture<?> deadline;
+        private volatile boolean expired;
+
+        /**
+         * Constructor. If the stream is not closed before
+         * the read timeout, it is closed by the watchdog so
+         * a stalled server can not block the reader forever.
+         *
+         * @param in            The stream to count.
+         * @param readTimeout   How long reading may take.
+         */
+        private CountingInputStream(InputStream in, Duration readTimeout) {
+            super(in);
+            deadline = WATCHDOG.schedule(() -> {
+                expired = true;
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // The reader gets the timeout instead.
+                }
+            }, readTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if(b >= 0) {
+                    bytesReceived.incrementAndGet();
+                    Metrics.counter("http.bytes").increment();
+                }
+                return b;
+            } catch (IOException e) {
+                throw expired ? new SocketTimeoutException("Read deadline passed") : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int n = super.read(buffer, offset, length);
+                if(n > 0) {
+                    bytesReceived.addAndGet(n);
+                    Metrics.counter("http.bytes").add(n);
+                }
+                return n;
+            } catch (IOException e) {
+                throw expired ? new SocketTimeoutException("Read deadline passed") : e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            deadline.cancel(false);
+            super.close();
+        }
+    }
+}
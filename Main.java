@@ -4,6 +4,8 @@
  * The program is used to find episodes within
  * 12 hours ago and 12 hours from now from channels
  * from Sveriges radio.
+ * Started with "--server [port]" it runs without
+ * a GUI and serves the schedules as JSON instead.
  *
  * @Author Pontus Dahlkvist
  * @Date 26/01 -25
@@ -20,13 +22,36 @@ import javax.swing.*;
  */
 public class Main {
     public static void main(String[] args) {
+        if(args.length > 0 && args[0].equals("--server")) {
+            startServer(args.length > 1 ? Integer.parseInt(args[1]) : 8080);
+            return;
+        }
+
+        long startNanos = System.nanoTime();
         SwingUtilities.invokeLater(() -> {
             try {
                 GUI gui = new GUI();
-                Controller controller = new Controller(gui);
-            } catch (Exception ignored) {
-
+                Controller controller = new Controller(gui, startNanos);
+            } catch (Exception e) {
+                e.printStackTrace();
+                JOptionPane.showMessageDialog(null, "RadioInfo kunde inte startas: " + e.getMessage(),
+                        "Fel", JOptionPane.ERROR_MESSAGE);
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Will run the program without a GUI, serving the
+     * schedules as JSON over HTTP instead.
+     *
+     * @param port  The port to listen on.
+     */
+    private static void startServer(int port) {
+        try {
+            new ScheduleServer(new Model(), port).start();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * A small registry of counters, gauges and histograms
+ * for the RadioInfo program. It is cheap enough to be
+ * on all the time: recording a value is a few atomic
+ * additions. Everything is also shown through JMX under
+ * radioinfo:type=Metrics.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * -------------------- Metrics class --------------------
+ */
+public final class Metrics {
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Registry(),
+                    new ObjectName("radioinfo:type=Metrics"));
+        } catch (Exception ignored) {
+            // Already registered by another class loader, the metrics still work.
+        }
+    }
+
+    /**
+     * Not used, the class only has static methods.
+     */
+    private Metrics() {
+
+    }
+
+    /**
+     * Returns the counter with a name, and creates
+     * it the first time.
+     *
+     * @param name  The name.
+     * @return      The counter.
+     */
+    public static LongAdder counter(String name) {
+        return COUNTERS.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Will register a value that is read when
+     * the metrics are shown, like a cache size.
+     *
+     * @param name      The name.
+     * @param value     Where the value is read from.
+     */
+    public static void gauge(String name, LongSupplier value) {
+        GAUGES.put(name, value);
+    }
+
+    /**
+     * Returns the histogram with a name, and creates
+     * it the first time.
+     *
+     * @param name  The name.
+     * @return      The histogram.
+     */
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Will record how long something took, in a
+     * histogram with the same name.
+     *
+     * @param name          The name of the timer.
+     * @param startNanos    When it started, from System.nanoTime().
+     * @return              How long it took in nanoseconds.
+     */
+    public static long time(String name, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        histogram(name).record(nanos);
+        return nanos;
+    }
+
+    /**
+     * Returns the current value of a gauge, or
+     * of a counter if there is no gauge with the name.
+     *
+     * @param name  The name.
+     * @return      The value.
+     */
+    public static long value(String name) {
+        LongSupplier gauge = GAUGES.get(name);
+        return gauge != null ? gauge.getAsLong() : counter(name).sum();
+    }
+
+    /**
+     * Will make a short line for the status bar
+     * with the most interesting numbers.
+     *
+     * @return  The status line.
+     */
+    public static String statusLine() {
+        long hits = value("cache.hits");
+        long misses = value("cache.misses");
+        long lookups = hits + misses;
+        return String.format(Locale.ROOT, "HTTP p50 %d ms, p99 %d ms | Tolkning p50 %d ms | Första rad %d ms, klar %d ms | %d kB | Cache %d%% | %d avsnitt",
+                histogram("http.request").percentile(0.5) / 1_000_000,
+                histogram("http.request").percentile(0.99) / 1_000_000,
+                histogram("parse.schedule").percentile(0.5) / 1_000_000,
+                histogram("refresh.firstRow").last() / 1_000_000,
+                histogram("refresh.complete").last() / 1_000_000,
+                counter("http.bytes").sum() / 1024,
+                lookups == 0 ? 0 : hits * 100 / lookups,
+                histogram("refresh.episodes").last());
+    }
+
+    /**
+     * -------------------- Histogram class --------------------
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+        private volatile long last;
+
+        /**
+         * Will record a value. Values are put in buckets by
+         * their highest set bit, so percentiles are accurate
+         * to within a factor of two.
+         *
+         * @param value     The value, must not be negative.
+         */
+        public void record(long value) {
+            long positive = Math.max(0, value);
+            buckets.incrementAndGet(63 - Long.numberOfLeadingZeros(positive | 1));
+            count.increment();
+            sum.add(positive);
+            max.accumulateAndGet(positive, Math::max);
+            last = positive;
+        }
+
+        /**
+         * Returns how many values have been recorded.
+         *
+         * @return  The count.
+         */
+        public long count() {
+            return count.sum();
+        }
+
+        /**
+         * Returns the mean of every recorded value.
+         *
+         * @return  The mean, or 0 if nothing is recorded.
+         */
+        public long mean() {
+            long n = count.sum();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+
+        /**
+         * Returns the largest recorded value.
+         *
+         * @return  The max.
+         */
+        public long max() {
+            return max.get();
+        }
+
+        /**
+         * Returns the last recorded value.
+         *
+         * @return  The last value.
+         */
+        public long last() {
+            return last;
+        }
+
+        /**
+         * Returns an upper bound for a percentile.
+         *
+         * @param fraction  The percentile, like 0.99.
+         * @return          The upper bound of its bucket.
+         */
+        public long percentile(double fraction) {
+            long n = count.sum();
+            if(n == 0) {
+                return 0;
+            }
+            long wanted = (long) Math.ceil(n * fraction);
+            long seen = 0;
+            for(int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if(seen >= wanted) {
+                    return Math.min(max.get(), i >= 62 ? Long.MAX_VALUE : (1L << (i + 1)) - 1);
+                }
+            }
+            return max.get();
+        }
+    }
+
+    /**
+     * -------------------- RegistryMXBean interface --------------------
+     */
+    public interface RegistryMXBean {
+
+        /**
+         * Returns every counter and gauge.
+         *
+         * @return  The values by name.
+         */
+        Map<String, Long> getCounters();
+
+        /**
+         * Returns a summary of every histogram.
+         *
+         * @return  The summaries by name.
+         */
+        Map<String, String> getHistograms();
+    }
+
+    /**
+     * -------------------- Registry class --------------------
+     */
+    private static final class Registry implements RegistryMXBean {
+
+        @Override
+        public Map<String, Long> getCounters() {
+            Map<String, Long> values = new TreeMap<>();
+            COUNTERS.forEach((name, counter) -> values.put(name, counter.sum()));
+            GAUGES.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+            return values;
+        }
+
+        @Override
+        public Map<String, String> getHistograms() {
+            Map<String, String> values = new TreeMap<>();
+            HISTOGRAMS.forEach((name, histogram) -> values.put(name, String.format(Locale.ROOT,
+                    "count=%d mean=%d p50=%d p99=%d max=%d", histogram.count(), histogram.mean(),
+                    histogram.percentile(0.5), histogram.percentile(0.99), histogram.max())));
+            return values;
+        }
+    }
+}
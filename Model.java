@@ -11,14 +11,36 @@
  * -------------------- Imports --------------------
  */
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -27,36 +49,154 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
 /**
  * -------------------- Model class --------------------
  */
 public class Model {
-    private volatile ArrayList<Channel> allChannels = new ArrayList<>();
+    private static final int FETCH_THREADS = 3;
+    private static final int FETCH_TIMEOUT_SECONDS = 15;
+    private static final int REFRESH_DEADLINE_SECONDS = 30;
+    private static final int BATCH_SIZE = 50;
+    private static final int FIRST_BATCH_SIZE = 10;
+    private static final String DEFAULT_BASE_URL = "http://api.sr.se/api/v2";
+    static final long WINDOW_MILLIS = TimeUnit.HOURS.toMillis(
+            Math.max(1, Math.min(168, Integer.getInteger("radioinfo.windowHours", 12))));
+    static final ZoneId SWEDISH_ZONE = ZoneId.of("Europe/Stockholm");
+    private static final int WINDOW_DATES = (int) (2 * WINDOW_MILLIS / TimeUnit.DAYS.toMillis(1)) + 2;
+    private static final int EXPECTED_CHANNELS = 64;
+    private static final int MIN_CACHED_SCHEDULES = 256;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DocumentBuilderFactory DOM_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final ThreadLocal<DocumentBuilder> DOM_BUILDER = new ThreadLocal<>();
+    private static final ThreadLocal<FetchHandle> CURRENT_FETCH = new ThreadLocal<>();
+
+    private final AtomicReference<List<Channel>> allChannels = new AtomicReference<>(List.of());
+    private volatile boolean streamingParser = !"dom".equals(System.getProperty("radioinfo.parser"));
+    private final Transport transport;
+    private final String baseUrl;
+    private final LinkedHashMap<String, Parsed> lastParsed = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Parsed> eldest) {
+            return size() > scheduleCache.getMaxEntries() + 1;
+        }
+    };
+    private final AtomicLong parseCount = new AtomicLong();
+    private final ScheduleCache scheduleCache = new ScheduleCache(
+            Math.max(MIN_CACHED_SCHEDULES, WINDOW_DATES * EXPECTED_CHANNELS), Clock.systemDefaultZone());
+    private final ScheduleIndex scheduleIndex = new ScheduleIndex();
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final ScheduleArchive archive;
+    private final SingleFlight<String, Object> singleFlight = new SingleFlight<>(Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "RadioInfo-flight");
+        thread.setDaemon(true);
+        return thread;
+    }));
+    private final ExecutorService fetchExecutor = Executors.newFixedThreadPool(FETCH_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "RadioInfo-fetch");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     /**
-     * Constructor.
+     * Constructor. Fetches from Sveriges radio with the
+     * default transport, behind retries and a circuit breaker.
+     * The property radioinfo.baseUrl can point it somewhere
+     * else, like a ReplayServer, and if radioinfo.record names
+     * a directory every answer is saved there. Fetched
+     * schedules are only archived if radioinfo.archive is set,
+     * see ScheduleArchive.defaultDirectory().
      */
     public Model() {
+        this(defaultTransport(), defaultBaseUrl());
+    }
 
+    /**
+     * Constructor.
+     *
+     * @param transport     The transport used for every fetch.
+     */
+    public Model(Transport transport) {
+        this(transport, defaultBaseUrl());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param transport     The transport used for every fetch.
+     * @param baseUrl       The URL the API paths are added to, without a trailing slash.
+     */
+    public Model(Transport transport, String baseUrl) {
+        this.transport = transport;
+        this.baseUrl = baseUrl;
+        Path archiveDirectory = ScheduleArchive.defaultDirectory();
+        this.archive = archiveDirectory != null ? new ScheduleArchive(archiveDirectory) : null;
+
+        Metrics.gauge("cache.hits", scheduleCache::getHits);
+        Metrics.gauge("cache.misses", scheduleCache::getMisses);
+        Metrics.gauge("cache.evictions", scheduleCache::getEvictions);
+        Metrics.gauge("fetch.coalesced", singleFlight::getCoalesced);
+    }
+
+    /**
+     * Will create the transport used when none is given.
+     *
+     * @return  The transport.
+     */
+    private static Transport defaultTransport() {
+        Transport transport = new FetchPolicy(new HttpTransport());
+        if(RecordingTransport.recordingDirectory() != null) {
+            transport = new RecordingTransport(transport, RecordingTransport.recordingDirectory(), defaultBaseUrl());
+        }
+        return transport;
+    }
+
+    /**
+     * Returns the base URL from the property
+     * radioinfo.baseUrl, or the one of Sveriges radio.
+     *
+     * @return  The base URL.
+     */
+    private static String defaultBaseUrl() {
+        String baseUrl = System.getProperty("radioinfo.baseUrl", DEFAULT_BASE_URL);
+        return baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
     }
 
     /**
      * Will find all the channels that
-     * Sveriges radio offers, and save them in
-     * an ArrayList.
+     * Sveriges radio offers, and replace the saved
+     * channels with them. The saved list is never changed,
+     * a new one is put in its place when the fetch is done,
+     * so readers never wait for a fetch.
      *
      * @throws IOException
      * @throws ParserConfigurationException
      * @throws SAXException
      */
-    public synchronized void findAllChannels() throws IOException, ParserConfigurationException, SAXException {
-        URL url = new URL("http://api.sr.se/api/v2/channels" + "?pagination=false");
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+    public void findAllChannels() throws IOException, ParserConfigurationException, SAXException {
+        String url = baseUrl + "/channels" + "?pagination=false";
+        ArrayList<Channel> channels = fetch(url, "channels", in -> streamingParser
+                ? StreamingParser.parseChannels(in)
+                : parseChannelsDOM(in));
+        allChannels.set(List.copyOf(channels));
+        scheduleCache.ensureCapacity(WINDOW_DATES * channels.size());
+    }
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document document = builder.parse(con.getInputStream());
+    /**
+     * Will read all channels from an answer by building
+     * the whole document first. Only used when the
+     * streaming parser is turned off.
+     *
+     * @param in    The answer from the channels request.
+     * @return      All channels in the answer.
+     * @throws IOException
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     */
+    static ArrayList<Channel> parseChannelsDOM(InputStream in) throws IOException, ParserConfigurationException, SAXException {
+        Document document = documentBuilder().parse(in);
+        ArrayList<Channel> channelList = new ArrayList<>();
 
         NodeList channels = document.getElementsByTagName("channel");
         for(int i = 0; i < channels.getLength(); i++) {
@@ -64,18 +204,100 @@ public class Model {
             String id = channelElement.getAttribute("id");
             String name = channelElement.getAttribute("name");
             Channel channel = new Channel(name, id);
-            allChannels.add(channel);
+            channelList.add(channel);
+        }
+        return channelList;
+    }
+
+    /**
+     * Will return a document builder for the current
+     * thread. The builders are kept since creating them
+     * every time is expensive.
+     *
+     * @return  A reset document builder.
+     * @throws ParserConfigurationException
+     */
+    private static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = DOM_BUILDER.get();
+        if(builder == null) {
+            synchronized (DOM_FACTORY) {
+                builder = DOM_FACTORY.newDocumentBuilder();
+            }
+            DOM_BUILDER.set(builder);
+        } else {
+            builder.reset();
         }
+        return builder;
+    }
+
+    /**
+     * Will choose between the streaming parser and
+     * the DOM parser. The streaming parser is used
+     * unless the property radioinfo.parser is "dom".
+     *
+     * @param streamingParser   True to use the streaming parser.
+     */
+    public void setStreamingParser(boolean streamingParser) {
+        this.streamingParser = streamingParser;
+    }
+
+    /**
+     * Will run findAllChannels() on the fetch threads.
+     *
+     * @return  A future holding all channels when they are found.
+     */
+    public CompletableFuture<List<Channel>> findAllChannelsAsync() {
+        return submitFetch(() -> {
+            findAllChannels();
+            return getAllChannels();
+        });
+    }
+
+    /**
+     * Will run a fetch on the fetch threads. The fetch times
+     * out when it has run for longer than the fetch timeout,
+     * counted from when it starts, so fetches that wait in the
+     * queue behind others are not given up on. If the returned
+     * future fails or is cancelled, like when it times out or
+     * a sibling fetch fails, the fetch thread is interrupted and
+     * stops waiting for its request, see fetch(). A fetch that
+     * has not started yet never starts.
+     *
+     * @param call  The fetch.
+     * @param <T>   What the fetch returns.
+     * @return      A future holding what the fetch returned.
+     */
+    private <T> CompletableFuture<T> submitFetch(SingleFlight.Call<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = fetchExecutor.submit(() -> {
+            if(result.isDone()) {
+                return;
+            }
+            result.orTimeout(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            try {
+                result.complete(call.call());
+            } catch (Exception | Error e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, ex) -> {
+            if(ex != null) {
+                task.cancel(true);
+            }
+        });
+        return result;
     }
 
     /**
      * Will return all the channels that was found
-     * by the findAllChannels() method.
+     * by the findAllChannels() method. The list can not
+     * be changed, and stays the same while it is used
+     * even if the channels are fetched again.
      *
      * @return  A list of all channels from Sveriges radio.
      */
-    public synchronized ArrayList<Channel> getAllChannels() {
-        return allChannels;
+    public List<Channel> getAllChannels() {
+        return allChannels.get();
     }
 
     /**
@@ -84,7 +306,7 @@ public class Model {
      * should remove it?
      */
     private void printAllChannels() {
-        for(Channel c : allChannels) {
+        for(Channel c : allChannels.get()) {
             System.out.println(c.getName() + " " + c.getId());
         }
     }
@@ -95,7 +317,10 @@ public class Model {
      * and save them in an ArrayList.
      * The timespan is 12 hours before now, and 12 hours
      * after now. So the episode has to start within
-     * that timespan to be saved in the list.
+     * that timespan to be saved in the list. The number
+     * of hours can be set with the property
+     * radioinfo.windowHours, up to a week.
+     * Blocks until findAllEpisodesFromIDAsync() is done.
      *
      * @param id    The channel ID.
      * @return      All episodes within the timespan.
@@ -104,22 +329,186 @@ public class Model {
      * @throws SAXException
      */
     public ArrayList<Episode> findAllEpisodesFromID(String id) throws IOException, ParserConfigurationException, SAXException {
-        String todaysDate = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-        String yesterdaysDate = LocalDate.now().minusDays(1).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
-        String tomorrowsDate = LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        try {
+            return findAllEpisodesFromIDAsync(id).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while fetching episodes.");
+            interrupted.initCause(e);
+            throw interrupted;
+        } catch (ExecutionException e) {
+            throw unwrapFetchException(e.getCause());
+        }
+    }
 
-        ArrayList<Episode> episodeList = new ArrayList<>();
+    /**
+     * Will fetch the schedules for the dates that the
+     * timespan covers at the same time and combine them
+     * into one filtered list. Every date has its own timeout, and if
+     * one of the fetches fails the others are interrupted and the
+     * future fails with what went wrong in that fetch. The whole
+     * refresh also has a deadline of its own, which grows with
+     * how many rounds the fetch threads need for the dates.
+     *
+     * @param id    The channel ID.
+     * @return      A future holding all episodes within the timespan.
+     */
+    public CompletableFuture<ArrayList<Episode>> findAllEpisodesFromIDAsync(String id) {
+        return findAllEpisodesFromIDAsync(id, null);
+    }
 
-        episodeList.addAll(findAllEpisodesFromDate(id, todaysDate));
-        episodeList.addAll(findAllEpisodesFromDate(id, tomorrowsDate));
-        episodeList.addAll(findAllEpisodesFromDate(id, yesterdaysDate));
+    /**
+     * Will fetch the schedules like findAllEpisodesFromIDAsync(),
+     * and also hand over the episodes within the timespan in
+     * small batches while the answers are still being read. A
+     * schedule from the cache is handed over in one batch. The
+     * batches are not sorted, and an episode may come twice if
+     * a fetch fails halfway and an old schedule is used instead,
+     * so the finished list is the one to keep.
+     *
+     * @param id        The channel ID.
+     * @param batches   Gets the batches on the fetch threads, or null.
+     * @return          A future holding all episodes within the timespan.
+     */
+    public CompletableFuture<ArrayList<Episode>> findAllEpisodesFromIDAsync(String id, Consumer<List<Episode>> batches) {
+        List<CompletableFuture<ArrayList<Episode>>> fetches = new ArrayList<>();
+        for(LocalDate date : windowDates(System.currentTimeMillis())) {
+            fetches.add(findAllEpisodesFromDateAsync(id, date.format(DATE_FORMAT), batches));
+        }
+        int rounds = (fetches.size() + FETCH_THREADS - 1) / FETCH_THREADS;
+
+        CompletableFuture<ArrayList<Episode>> result = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(fetches.size());
+        for(CompletableFuture<ArrayList<Episode>> fetch : fetches) {
+            fetch.whenComplete((episodes, ex) -> {
+                if(ex != null) {
+                    result.completeExceptionally(ex);
+                } else if(remaining.decrementAndGet() == 0) {
+                    ArrayList<Episode> episodeList = new ArrayList<>();
+                    for(CompletableFuture<ArrayList<Episode>> done : fetches) {
+                        episodeList.addAll(done.join());
+                    }
+                    result.complete(filterEpisodes(episodeList));
+                }
+            });
+        }
 
-        return filterEpisodes(episodeList);
+        // The siblings are only cancelled once the result is done, so
+        // their cancellation never hides the failure that caused it.
+        result.whenComplete((episodes, ex) -> {
+            if(ex != null) {
+                fetches.forEach(fetch -> fetch.cancel(true));
+            }
+        });
+        return result.orTimeout((long) REFRESH_DEADLINE_SECONDS * rounds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Will return the dates that the timespan around a
+     * time covers. Before noon that is yesterday and today,
+     * after noon it is today and tomorrow. The dates are
+     * the Swedish ones, like the dates Sveriges radio uses.
+     *
+     * @param now   The time in epoch milliseconds.
+     * @return      The dates, oldest first.
+     */
+    static List<LocalDate> windowDates(long now) {
+        LocalDate first = Instant.ofEpochMilli(now - WINDOW_MILLIS).atZone(SWEDISH_ZONE).toLocalDate();
+        LocalDate last = Instant.ofEpochMilli(now + WINDOW_MILLIS).atZone(SWEDISH_ZONE).toLocalDate();
+        List<LocalDate> dates = new ArrayList<>();
+        for(LocalDate date = first; !date.isAfter(last); date = date.plusDays(1)) {
+            dates.add(date);
+        }
+        return dates;
+    }
+
+    /**
+     * Will find the episodes within the timespan for a
+     * channel from the schedules that are already loaded,
+     * without fetching anything. Used to keep what is
+     * shown up to date when episodes start and end.
+     *
+     * @param id    The channel ID.
+     * @return      The episodes within the timespan.
+     */
+    public ArrayList<Episode> findLoadedEpisodesFromID(String id) {
+        long now = System.currentTimeMillis();
+        return filterEpisodes(new ArrayList<>(scheduleIndex.window(id, now - WINDOW_MILLIS, now + WINDOW_MILLIS)));
+    }
+
+    /**
+     * Will find the episodes within the timespan for a channel
+     * right away, if the schedule of every date in the timespan
+     * is cached and has not expired. Nothing is fetched and no
+     * fetch thread is used, so it can be called on any thread.
+     *
+     * @param id    The channel ID.
+     * @return      The episodes within the timespan, or null if a date is not cached.
+     */
+    public ArrayList<Episode> findCachedEpisodesFromID(String id) {
+        for(LocalDate date : windowDates(System.currentTimeMillis())) {
+            if(!scheduleCache.isFresh(id, date)) {
+                return null;
+            }
+        }
+        return findLoadedEpisodesFromID(id);
+    }
+
+    /**
+     * Will run findAllEpisodesFromDate() on the fetch threads
+     * and give up on it if it takes longer than the timeout
+     * once it has started. Giving up interrupts the fetch.
+     *
+     * @param id        The ID for the channel.
+     * @param date      The date.
+     * @param batches   Gets the episodes within the timespan while they are read, or null.
+     * @return          A future holding the found episodes.
+     */
+    private CompletableFuture<ArrayList<Episode>> findAllEpisodesFromDateAsync(String id, String date, Consumer<List<Episode>> batches) {
+        return submitFetch(() -> findAllEpisodesFromDate(id, date, batches));
+    }
+
+    /**
+     * Will turn the cause of a failed fetch back into one
+     * of the checked exceptions the synchronous methods throw.
+     *
+     * @param cause     What made the fetch fail.
+     * @return          An IOException to throw.
+     * @throws ParserConfigurationException     If that is what the fetch failed with.
+     * @throws SAXException                     If that is what the fetch failed with.
+     */
+    private static IOException unwrapFetchException(Throwable cause) throws ParserConfigurationException, SAXException {
+        while(cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if(cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if(cause instanceof ParserConfigurationException) {
+            throw (ParserConfigurationException) cause;
+        }
+        if(cause instanceof SAXException) {
+            throw (SAXException) cause;
+        }
+        if(cause instanceof TimeoutException) {
+            return new IOException("Fetching episodes timed out.", cause);
+        }
+        if(cause instanceof CancellationException) {
+            return new IOException("Fetching episodes was cancelled.", cause);
+        }
+        if(cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        return new IOException(cause);
     }
 
     /**
      * Will find all episodes from a specific channel from
      * Sveriges radio on a certain date and return them.
+     * Schedules that are in the cache are not fetched again.
+     * Fetched schedules are also added to the schedule index.
+     * If the fetch fails but an expired schedule is still in
+     * the cache, that one is returned instead.
      *
      * @param id        The ID for the channel.
      * @param date      The date.
@@ -129,13 +518,284 @@ public class Model {
      * @throws SAXException                     Something went wrong with retrieving the episodes.
      */
     public ArrayList<Episode> findAllEpisodesFromDate(String id, String date) throws IOException, ParserConfigurationException, SAXException {
-        URL url = new URL("http://api.sr.se/api/v2/scheduledepisodes?channelid="
-                + id + "&date=" + date + "&pagination=false");
-        HttpURLConnection con = (HttpURLConnection) url.openConnection();
+        return findAllEpisodesFromDate(id, date, null);
+    }
+
+    /**
+     * Will find all episodes from a channel on a date like
+     * findAllEpisodesFromDate(), and hand over the episodes
+     * within the timespan in batches. With the streaming
+     * parser, the batches are handed over while the answer
+     * is read. Otherwise they come when it is all read.
+     *
+     * @param id        The ID for the channel.
+     * @param date      The date.
+     * @param batches   Gets the episodes within the timespan, or null.
+     * @return          The list of all found episodes.
+     * @throws IOException                      Something went wrong with retrieving the episodes.
+     * @throws ParserConfigurationException     Something went wrong with retrieving the episodes.
+     * @throws SAXException                     Something went wrong with retrieving the episodes.
+     */
+    private ArrayList<Episode> findAllEpisodesFromDate(String id, String date, Consumer<List<Episode>> batches) throws IOException, ParserConfigurationException, SAXException {
+        LocalDate day = LocalDate.parse(date);
+        ArrayList<Episode> cached = scheduleCache.get(id, day);
+        if(cached != null) {
+            return handOver(new ArrayList<>(cached), batches);
+        }
+
+        String url = baseUrl + "/scheduledepisodes?channelid="
+                + URLEncoder.encode(id, StandardCharsets.UTF_8) + "&date=" + day + "&pagination=false";
+        WindowBatcher batcher = batches != null && streamingParser ? new WindowBatcher(batches) : null;
+        ArrayList<Episode> episodes;
+        try {
+            episodes = new ArrayList<>(fetch(url, "schedule", in -> {
+                if(batcher != null) {
+                    ArrayList<Episode> parsed = new ArrayList<>();
+                    StreamingParser.parseEpisodes(in, episode -> {
+                        parsed.add(episode);
+                        batcher.add(episode);
+                    });
+                    batcher.flush();
+                    return parsed;
+                }
+                return streamingParser ? StreamingParser.parseEpisodes(in) : parseEpisodesDOM(in);
+            }));
+        } catch (IOException e) {
+            ArrayList<Episode> stale = scheduleCache.getStale(id, day);
+            if(stale == null) {
+                throw e;
+            }
+            Metrics.counter("fetch.stale").increment();
+            return handOver(new ArrayList<>(stale), batches);
+        }
+        scheduleCache.put(id, day, episodes);
+        scheduleIndex.update(id, episodes);
+        updateSearchIndex(id, day, episodes);
+        if(archive != null) {
+            archive.append(id, day, episodes);
+        }
+        if(batcher == null || !batcher.isUsed()) {
+            return handOver(new ArrayList<>(episodes), batches);
+        }
+        return new ArrayList<>(episodes);
+    }
+
+    /**
+     * Will hand over the episodes within the timespan
+     * in one batch, if anyone wants them.
+     *
+     * @param episodes  All episodes of a schedule.
+     * @param batches   Gets the episodes within the timespan, or null.
+     * @return          The same episodes.
+     */
+    private ArrayList<Episode> handOver(ArrayList<Episode> episodes, Consumer<List<Episode>> batches) {
+        if(batches != null) {
+            List<Episode> within = filterEpisodes(episodes);
+            if(!within.isEmpty()) {
+                batches.accept(within);
+            }
+        }
+        return episodes;
+    }
+
+    /**
+     * Will add a schedule to the search index, and forget
+     * the schedules of the channel that are too old to be
+     * in the timespan or the day before it.
+     *
+     * @param id        The channel ID.
+     * @param date      The date of the schedule.
+     * @param episodes  The episodes on that date.
+     */
+    public void updateSearchIndex(String id, LocalDate date, List<Episode> episodes) {
+        searchIndex.update(id, date, episodes);
+        searchIndex.removeBefore(id, windowDates(System.currentTimeMillis()).get(0).minusDays(1));
+    }
+
+    /**
+     * Returns the full-text index over the titles and
+     * descriptions of every fetched episode.
+     *
+     * @return  The search index.
+     */
+    public SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * Returns the archive where every fetched schedule
+     * is kept, for looking at old schedules.
+     *
+     * @return  The archive, or null if archiving is turned off.
+     */
+    public ScheduleArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * Returns the index over every schedule that
+     * has been fetched, for queries across channels.
+     *
+     * @return  The schedule index.
+     */
+    public ScheduleIndex getScheduleIndex() {
+        return scheduleIndex;
+    }
+
+    /**
+     * Returns the cache that holds the schedules
+     * found by findAllEpisodesFromDate().
+     *
+     * @return  The schedule cache.
+     */
+    public ScheduleCache getScheduleCache() {
+        return scheduleCache;
+    }
+
+    /**
+     * Will fetch a resource through the transport and parse
+     * it. If the same URL is already being fetched by another
+     * thread, this waits for that fetch and returns the same
+     * result instead of sending another request. The request
+     * runs on a thread of its own, so a caller that is
+     * interrupted only stops waiting for it. When every caller
+     * has stopped waiting, the request is aborted and the body
+     * it is reading is closed, so a hung request does not keep
+     * a thread busy.
+     *
+     * @param url       The URL to fetch.
+     * @param kind      What is fetched, used to name the parse timer.
+     * @param parser    How to parse the response body.
+     * @param <T>       What the body is parsed into.
+     * @return          The parsed result.
+     * @throws IOException                      Something went wrong with the fetch.
+     * @throws ParserConfigurationException     Something went wrong with the parsing.
+     * @throws SAXException                     Something went wrong with the parsing.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T fetch(String url, String kind, ResponseParser<T> parser) throws IOException, ParserConfigurationException, SAXException {
+        try {
+            FetchHandle handle = new FetchHandle();
+            return (T) singleFlight.execute(url, () -> {
+                CURRENT_FETCH.set(handle);
+                try {
+                    return fetchNow(url, kind, parser);
+                } finally {
+                    CURRENT_FETCH.remove();
+                }
+            }, handle::abort);
+        } catch (IOException | ParserConfigurationException | SAXException | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while fetching " + url);
+            interrupted.initCause(e);
+            throw interrupted;
+        } catch (Exception e) {
+            throw unwrapFetchException(e);
+        }
+    }
+
+    /**
+     * Will fetch a resource through the transport and parse
+     * it. The parsed result is remembered together with the
+     * validators of its body, so if the server says the resource
+     * has not changed since last time, the old result is returned
+     * without parsing anything. Both are only kept once the body
+     * has been parsed, so a body that fails halfway never pairs
+     * new validators with an old result. Only as many results
+     * as the schedule cache holds, and the channels, are kept.
+     *
+     * @param url       The URL to fetch.
+     * @param kind      What is fetched, used to name the parse timer.
+     * @param parser    How to parse the response body.
+     * @param <T>       What the body is parsed into.
+     * @return          The parsed result.
+     * @throws IOException                      Something went wrong with the fetch.
+     * @throws ParserConfigurationException     Something went wrong with the parsing.
+     * @throws SAXException                     Something went wrong with the parsing.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T fetchNow(String url, String kind, ResponseParser<T> parser) throws IOException, ParserConfigurationException, SAXException {
+        Parsed previous;
+        synchronized (lastParsed) {
+            previous = lastParsed.get(url);
+        }
+        Transport.Response response = transport.get(url, previous != null ? previous.validators : null);
+        if(response.isNotModified() && previous != null) {
+            return (T) previous.result;
+        }
+        if(response.isNotModified()) {
+            throw new IOException("Not modified, but nothing is kept for " + url);
+        }
 
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document document = builder.parse(con.getInputStream());
+        RadioEvents.ParseEvent event = new RadioEvents.ParseEvent();
+        event.begin();
+        long start = System.nanoTime();
+        FetchHandle handle = CURRENT_FETCH.get();
+        try (InputStream in = response.getBody()) {
+            if(handle != null) {
+                handle.open(in);
+            }
+            T parsed = parser.parse(in);
+            parseCount.incrementAndGet();
+            synchronized (lastParsed) {
+                if(response.getValidators() != null) {
+                    lastParsed.put(url, new Parsed(parsed, response.getValidators()));
+                } else {
+                    lastParsed.remove(url);
+                }
+            }
+            return parsed;
+        } catch (XMLStreamException e) {
+            throw new SAXException(e);
+        } finally {
+            if(handle != null) {
+                handle.close();
+            }
+            Metrics.time("parse." + kind, start);
+            if(event.shouldCommit()) {
+                event.url = url;
+                event.kind = kind;
+                event.streaming = streamingParser;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Returns the layer that makes identical fetches
+     * share one request, with its counters.
+     *
+     * @return  The single flight layer.
+     */
+    public SingleFlight<String, Object> getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Returns how many responses have been parsed. Responses
+     * that were not modified are not counted.
+     *
+     * @return  The number of parsed responses.
+     */
+    public long getParseCount() {
+        return parseCount.get();
+    }
+
+    /**
+     * Will read all episodes from an answer by building
+     * the whole document first. Only used when the
+     * streaming parser is turned off.
+     *
+     * @param in    The answer from the scheduledepisodes request.
+     * @return      All episodes in the answer.
+     * @throws IOException
+     * @throws ParserConfigurationException
+     * @throws SAXException
+     */
+    static ArrayList<Episode> parseEpisodesDOM(InputStream in) throws IOException, ParserConfigurationException, SAXException {
+        Document document = documentBuilder().parse(in);
 
         NodeList episodes = document.getElementsByTagName("scheduledepisode");
         ArrayList<Episode> episodeList = new ArrayList<>();
@@ -173,8 +833,9 @@ public class Model {
     /**
      * Will take a list of episodes and filter them so
      * that only the episodes that started within 12
-     * hours ago and 12 hours from now will remain.
-     * Those episodes will be returned.
+     * hours ago and 12 hours from now will remain, or
+     * the number of hours in radioinfo.windowHours.
+     * Those episodes will be returned, sorted by start time.
      *
      * @param allEpisodes   The list of episodes to be filtered.
      * @return              The list of filtered episodes.
@@ -182,26 +843,162 @@ public class Model {
     public ArrayList<Episode> filterEpisodes(ArrayList<Episode> allEpisodes) {
         ArrayList<Episode> filteredEpisodes = new ArrayList<>();
 
-        LocalDateTime now = LocalDateTime.now(ZoneId.of("Europe/Stockholm"));
-        LocalDateTime starterTime = now.minusHours(12);
-        LocalDateTime enderTime = now.plusHours(12);
+        long now = System.currentTimeMillis();
+        long starterTime = now - WINDOW_MILLIS;
+        long enderTime = now + WINDOW_MILLIS;
 
         for (Episode episode : allEpisodes) {
-            String episodeTime = episode.getStartTime();
+            long startTime = episode.getStartMillis();
+            if (startTime > starterTime && startTime < enderTime) {
+                filteredEpisodes.add(episode);
+            }
+        }
 
-            String currentYear = String.valueOf(now.getYear());
-            String fullDateTime = currentYear + "-" + episodeTime;
+        filteredEpisodes.sort(Comparator.comparingLong(Episode::getStartMillis));
+        return filteredEpisodes;
+    }
 
-            LocalDateTime startTime = LocalDateTime.parse(fullDateTime, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+    /**
+     * -------------------- WindowBatcher class --------------------
+     */
+    private static final class WindowBatcher {
+        private final Consumer<List<Episode>> batches;
+        private final long from;
+        private final long to;
+        private List<Episode> batch = new ArrayList<>(BATCH_SIZE);
+        private boolean used;
+        private boolean handedOver;
+
+        /**
+         * Constructor. Collects the episodes that start
+         * within the timespan as it is now.
+         *
+         * @param batches   Gets every full batch.
+         */
+        private WindowBatcher(Consumer<List<Episode>> batches) {
+            long now = System.currentTimeMillis();
+            this.batches = batches;
+            this.from = now - WINDOW_MILLIS;
+            this.to = now + WINDOW_MILLIS;
+        }
 
-            if (startTime.isAfter(starterTime) && startTime.isBefore(enderTime)) {
-                filteredEpisodes.add(episode);
+        /**
+         * Will add an episode, and hand over the batch if
+         * it is full. The first batch is smaller, since a
+         * day on a channel is often less than a full batch,
+         * and the first rows should be shown right away.
+         *
+         * @param episode   The episode that was just read.
+         */
+        private void add(Episode episode) {
+            used = true;
+            long start = episode.getStartMillis();
+            if(start > from && start < to) {
+                batch.add(episode);
+                if(batch.size() >= (handedOver ? BATCH_SIZE : FIRST_BATCH_SIZE)) {
+                    flush();
+                }
             }
         }
 
-        return filteredEpisodes;
+        /**
+         * Will hand over what has been collected.
+         */
+        private void flush() {
+            used = true;
+            if(!batch.isEmpty()) {
+                handedOver = true;
+                batches.accept(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        /**
+         * Will check if this batcher read the answer, which
+         * it did not if another thread fetched the same URL
+         * or the server said it had not changed.
+         *
+         * @return  True if the episodes have been handed over.
+         */
+        private boolean isUsed() {
+            return used;
+        }
+    }
+
+    /**
+     * -------------------- Parsed class --------------------
+     */
+    private static final class Parsed {
+        private final Object result;
+        private final Transport.Validators validators;
+
+        /**
+         * Constructor.
+         *
+         * @param result        What the body was parsed into.
+         * @param validators    The validators of the body.
+         */
+        private Parsed(Object result, Transport.Validators validators) {
+            this.result = result;
+            this.validators = validators;
+        }
     }
 
+    /**
+     * -------------------- FetchHandle class --------------------
+     */
+    private static final class FetchHandle {
+        private Closeable body;
+        private boolean aborted;
+
+        /**
+         * Will remember the body a fetch is reading, so it
+         * can be closed if the fetch is given up on. Interrupting
+         * the thread is not enough, a read from HttpClient keeps
+         * waiting for data when it is interrupted.
+         *
+         * @param body  The body.
+         * @throws IOException  The fetch was already given up on.
+         */
+        private synchronized void open(Closeable body) throws IOException {
+            if(aborted) {
+                throw new InterruptedIOException("The fetch was given up on.");
+            }
+            this.body = body;
+        }
+
+        /**
+         * Will forget the body when it is done.
+         */
+        private synchronized void close() {
+            body = null;
+        }
 
+        /**
+         * Will give up on the fetch and close the body it
+         * is reading, which makes the read fail right away.
+         */
+        private void abort() {
+            Closeable open;
+            synchronized (this) {
+                aborted = true;
+                open = body;
+                body = null;
+            }
+            if(open != null) {
+                try {
+                    open.close();
+                } catch (IOException ignored) {
+                    // The reader fails anyway, the body is gone.
+                }
+            }
+        }
+    }
 
+    /**
+     * -------------------- ResponseParser interface --------------------
+     */
+    private interface ResponseParser<T> {
+        T parse(InputStream in) throws IOException, ParserConfigurationException, SAXException, XMLStreamException;
+    }
 }
@@ -0,0 +1,238 @@
+/**
+ * This class fetches the schedules of every channel
+ * in the background for the RadioInfo program, so that
+ * clicking a channel can show its episodes from the cache
+ * right away. Only a few channels are fetched at a time,
+ * and the requests are rate limited.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * -------------------- PrefetchService class --------------------
+ */
+public class PrefetchService {
+    private final Model model;
+    private final int concurrency;
+    private final RateLimiter rateLimiter;
+    private final Listener listener;
+    private final PriorityBlockingQueue<Task> queue = new PriorityBlockingQueue<>();
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong boost = new AtomicLong();
+    private final AtomicInteger done = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private ExecutorService workers;
+    private volatile int total;
+    private volatile long startNanos;
+    private RadioEvents.PrefetchEvent event;
+
+    /**
+     * Constructor.
+     *
+     * @param model         The model the schedules are fetched through.
+     * @param concurrency   How many channels may be fetched at the same time.
+     * @param rateLimiter   Limits how fast requests are sent.
+     * @param listener      Is told about the progress.
+     */
+    public PrefetchService(Model model, int concurrency, RateLimiter rateLimiter, Listener listener) {
+        this.model = model;
+        this.concurrency = concurrency;
+        this.rateLimiter = rateLimiter;
+        this.listener = listener;
+    }
+
+    /**
+     * Will start fetching the schedules of the channels
+     * in the order they are given. A channel that is
+     * listed more than once is only fetched once.
+     *
+     * @param channels  The channels to fetch.
+     */
+    public synchronized void start(List<Channel> channels) {
+        if(workers != null) {
+            return;
+        }
+        Map<String, Channel> unique = new LinkedHashMap<>();
+        for(Channel channel : channels) {
+            unique.putIfAbsent(channel.getId(), channel);
+        }
+        total = unique.size();
+        startNanos = System.nanoTime();
+        event = new RadioEvents.PrefetchEvent();
+        event.begin();
+        for(Channel channel : unique.values()) {
+            queue.add(new Task(channel, 0, sequence.incrementAndGet()));
+        }
+
+        workers = Executors.newFixedThreadPool(concurrency, runnable -> {
+            Thread thread = new Thread(runnable, "RadioInfo-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        for(int i = 0; i < concurrency; i++) {
+            workers.execute(this::work);
+        }
+        workers.shutdown();
+    }
+
+    /**
+     * Will move a channel to the front of the queue,
+     * if it has not been fetched yet. The channel that
+     * was prioritized last is fetched first.
+     *
+     * @param channel   The channel, usually one the user just clicked.
+     */
+    public void prioritize(Channel channel) {
+        if(!claimed.contains(channel.getId())) {
+            queue.add(new Task(channel, -boost.incrementAndGet(), sequence.incrementAndGet()));
+        }
+    }
+
+    /**
+     * Will stop fetching. Schedules that are
+     * being fetched right now are finished.
+     */
+    public synchronized void stop() {
+        queue.clear();
+    }
+
+    /**
+     * The loop every worker runs. It takes the first channel
+     * from the queue that nobody else has taken, fetches its
+     * schedules, and stops when the queue is empty. Every
+     * channel that is taken counts as done, however its
+     * fetch ends. Only the dates the Model shows are fetched,
+     * and dates that are already cached do not use up any
+     * of the rate limit.
+     */
+    private void work() {
+        Task task;
+        while((task = queue.poll()) != null) {
+            if(!claimed.add(task.channel.getId())) {
+                continue;
+            }
+            boolean fetched = false;
+            try {
+                String id = task.channel.getId();
+                for(LocalDate date : Model.windowDates(System.currentTimeMillis())) {
+                    if(model.getScheduleCache().isFresh(id, date)) {
+                        continue;
+                    }
+                    rateLimiter.acquire();
+                    model.findAllEpisodesFromDate(id, date.toString());
+                }
+                fetched = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                // Counted as failed below.
+            } finally {
+                markDone(fetched);
+            }
+            if(Thread.currentThread().isInterrupted()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Will count a channel as done and tell the listener,
+     * and tell it that everything is finished when the
+     * last channel is done. The whole prefetch is then
+     * recorded in the metrics and as a flight recorder event.
+     *
+     * @param fetched   False if the channel could not be fetched.
+     */
+    private void markDone(boolean fetched) {
+        if(!fetched) {
+            failed.incrementAndGet();
+        }
+        int finished = done.incrementAndGet();
+        listener.progress(finished, total);
+        if(finished == total) {
+            int failures = failed.get();
+            Metrics.time("prefetch.duration", startNanos);
+            Metrics.counter("prefetch.channels").add(total - failures);
+            Metrics.counter("prefetch.failed").add(failures);
+            RadioEvents.PrefetchEvent finishedEvent = event;
+            if(finishedEvent.shouldCommit()) {
+                finishedEvent.channels = total;
+                finishedEvent.failed = failures;
+                finishedEvent.commit();
+            }
+            listener.finished(total, failures, (System.nanoTime() - startNanos) / 1_000_000);
+        }
+    }
+
+    /**
+     * -------------------- Listener interface --------------------
+     */
+    public interface Listener {
+
+        /**
+         * Called every time a channel has been fetched.
+         *
+         * @param done      How many channels have been fetched.
+         * @param total     How many channels there are.
+         */
+        void progress(int done, int total);
+
+        /**
+         * Called once when every channel has been fetched.
+         *
+         * @param total     How many channels there were.
+         * @param failed    How many of them could not be fetched.
+         * @param millis    How long it took in milliseconds.
+         */
+        void finished(int total, int failed, long millis);
+    }
+
+    /**
+     * -------------------- Task class --------------------
+     */
+    private static final class Task implements Comparable<Task> {
+        private final Channel channel;
+        private final long priority;
+        private final long sequence;
+
+        /**
+         * Constructor.
+         *
+         * @param channel   The channel to fetch.
+         * @param priority  Lower is fetched first.
+         * @param sequence  Breaks ties, lower is fetched first.
+         */
+        private Task(Channel channel, long priority, long sequence) {
+            this.channel = channel;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if(priority != other.priority) {
+                return Long.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * The Java Flight Recorder events of the RadioInfo
+ * program. They show where the time of a refresh goes
+ * when a recording is made, and cost almost nothing
+ * when there is no recording.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * -------------------- RadioEvents class --------------------
+ */
+public final class RadioEvents {
+
+    /**
+     * Not used, the class only holds the events.
+     */
+    private RadioEvents() {
+
+    }
+
+    /**
+     * -------------------- FetchEvent class --------------------
+     */
+    @Name("radioinfo.Fetch")
+    @Label("HTTP Fetch")
+    @Category({"RadioInfo", "Network"})
+    public static final class FetchEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Status")
+        public int status;
+    }
+
+    /**
+     * -------------------- ParseEvent class --------------------
+     */
+    @Name("radioinfo.Parse")
+    @Label("Parse Response")
+    @Category({"RadioInfo", "Parsing"})
+    public static final class ParseEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("Kind")
+        public String kind;
+
+        @Label("Streaming")
+        public boolean streaming;
+    }
+
+    /**
+     * -------------------- ThumbnailEvent class --------------------
+     */
+    @Name("radioinfo.Thumbnail")
+    @Label("Load Thumbnail")
+    @Category({"RadioInfo", "Images"})
+    public static final class ThumbnailEvent extends Event {
+        @Label("URL")
+        public String url;
+
+        @Label("From Disk")
+        public boolean fromDisk;
+
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+    }
+
+    /**
+     * -------------------- ChannelMenuEvent class --------------------
+     */
+    @Name("radioinfo.ChannelMenu")
+    @Label("Channel Menu Ready")
+    @Category({"RadioInfo", "Swing"})
+    public static final class ChannelMenuEvent extends Event {
+        @Label("Source")
+        public String source;
+
+        @Label("Channels")
+        public int channels;
+
+        @Label("Since Start")
+        @Timespan(Timespan.MILLISECONDS)
+        public long sinceStartMillis;
+    }
+
+    /**
+     * -------------------- PrefetchEvent class --------------------
+     */
+    @Name("radioinfo.Prefetch")
+    @Label("Prefetch Schedules")
+    @Category({"RadioInfo", "Network"})
+    public static final class PrefetchEvent extends Event {
+        @Label("Channels")
+        public int channels;
+
+        @Label("Failed")
+        public int failed;
+    }
+
+    /**
+     * -------------------- TableUpdateEvent class --------------------
+     */
+    @Name("radioinfo.TableUpdate")
+    @Label("Table Update")
+    @Category({"RadioInfo", "Swing"})
+    public static final class TableUpdateEvent extends Event {
+        @Label("Episodes")
+        public int episodes;
+
+        @Label("Rows Touched")
+        public int touched;
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * A token bucket for the RadioInfo program. It is
+ * used to limit how fast requests are sent to
+ * Sveriges radio when many schedules are fetched
+ * at once.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- RateLimiter class --------------------
+ */
+public class RateLimiter {
+    private final double permitsPerSecond;
+    private final double maxPermits;
+    private double permits;
+    private long lastRefill;
+
+    /**
+     * Constructor. The bucket starts full.
+     *
+     * @param permitsPerSecond  How many permits are added every second.
+     * @param maxPermits        How many permits the bucket can hold.
+     */
+    public RateLimiter(double permitsPerSecond, double maxPermits) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxPermits = maxPermits;
+        this.permits = maxPermits;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Will take one permit from the bucket, and wait
+     * until there is one if the bucket is empty.
+     *
+     * @throws InterruptedException     If the thread is interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        while(true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if(permits >= 1) {
+                    permits--;
+                    return;
+                }
+                waitNanos = (long) ((1 - permits) / permitsPerSecond * 1_000_000_000L);
+            }
+            Thread.sleep(Math.max(1, waitNanos / 1_000_000), (int) (waitNanos % 1_000_000));
+        }
+    }
+
+    /**
+     * Will add the permits that have been earned
+     * since the last refill.
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        permits = Math.min(maxPermits, permits + (now - lastRefill) / 1_000_000_000.0 * permitsPerSecond);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * A transport for the RadioInfo program that saves
+ * every answer from Sveriges radio to a directory while
+ * it passes it on. The directory can then be served by
+ * ReplayServer, so the program can be tested and profiled
+ * offline with the same answers every time.
+ *
+ * Answers are saved under a name made from the path and
+ * query relative to the base URL, like
+ * scheduledepisodes_channelid_132_date_2025-01-26_pagination_false.xml
+ * Images are saved in the images directory under a hash
+ * of their URL.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * -------------------- RecordingTransport class --------------------
+ */
+public class RecordingTransport implements Transport {
+    private final Transport transport;
+    private final Path directory;
+    private final String baseUrl;
+
+    /**
+     * Constructor.
+     *
+     * @param transport     The transport that does the fetching.
+     * @param directory     Where the answers are saved.
+     * @param baseUrl       The base URL that names are made relative to.
+     */
+    public RecordingTransport(Transport transport, Path directory, String baseUrl) {
+        this.transport = transport;
+        this.directory = directory;
+        this.baseUrl = baseUrl;
+    }
+
+    /**
+     * Will fetch a resource and save the answer. Every
+     * request is sent unconditionally, since an answer
+     * saying "not modified" has nothing to save.
+     *
+     * @param url           The URL to fetch.
+     * @param validators    Ignored.
+     * @return              The response, read from memory.
+     * @throws IOException  The resource could not be fetched or saved.
+     */
+    @Override
+    public Response get(String url, Validators validators) throws IOException {
+        Response response = transport.get(url, null);
+        if(response.isNotModified()) {
+            return response;
+        }
+        byte[] body;
+        try (InputStream in = response.getBody()) {
+            body = in.readAllBytes();
+        }
+        String relative = url.startsWith(baseUrl) ? url.substring(baseUrl.length()) : url;
+        save(directory.resolve(fileName(relative)), body);
+        return Response.of(new ByteArrayInputStream(body), response.getValidators());
+    }
+
+    /**
+     * Returns the directory that the property
+     * radioinfo.record names.
+     *
+     * @return  The directory, or null if nothing should be recorded.
+     */
+    public static Path recordingDirectory() {
+        String directory = System.getProperty("radioinfo.record");
+        return directory != null ? Path.of(directory) : null;
+    }
+
+    /**
+     * Will save the raw bytes of an image, if
+     * recording is turned on.
+     *
+     * @param url       The image URL.
+     * @param bytes     The image as it was downloaded.
+     */
+    public static void recordImage(String url, byte[] bytes) {
+        Path directory = recordingDirectory();
+        if(directory == null) {
+            return;
+        }
+        try {
+            save(directory.resolve(imageFileName(url)), bytes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Will make the file name of an answer from its path
+     * and query. Everything that is not safe in a file name
+     * becomes an underscore.
+     *
+     * @param pathAndQuery  The path and query relative to the base URL.
+     * @return              The file name.
+     */
+    public static String fileName(String pathAndQuery) {
+        StringBuilder name = new StringBuilder();
+        for(int i = 0; i < pathAndQuery.length(); i++) {
+            char c = pathAndQuery.charAt(i);
+            boolean safe = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || c == '-' || c == '.';
+            if(safe) {
+                name.append(c);
+            } else if(name.length() > 0 && name.charAt(name.length() - 1) != '_') {
+                name.append('_');
+            }
+        }
+        return name.append(".xml").toString();
+    }
+
+    /**
+     * Will make the file name of an image from its URL.
+     *
+     * @param url   The image URL.
+     * @return      The file name, inside the images directory.
+     */
+    public static String imageFileName(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder("images/");
+            for(byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(".img").toString();
+        } catch (NoSuchAlgorithmException e) {
+            return "images/" + Integer.toHexString(url.hashCode()) + ".img";
+        }
+    }
+
+    /**
+     * Will write a file through a temporary file,
+     * so a half written answer is never replayed.
+     *
+     * @param file      Where to save it.
+     * @param bytes     What to save.
+     * @throws IOException  It could not be saved.
+     */
+    private static void save(Path file, byte[] bytes) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, "record", ".tmp");
+        try {
+            Files.write(temporary, bytes);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/**
+ * Decides when the RadioInfo program refreshes the
+ * shown schedule. Instead of waking up every hour, it
+ * plans the next wakeup from what is loaded: when the
+ * episode on air changes, when an episode enters or
+ * leaves the timespan, and when a schedule in
+ * the cache is old enough to be fetched again.
+ *
+ * Most wakeups only show the loaded schedule again and
+ * send nothing to Sveriges radio. Fetches are spread out
+ * with jitter, deadlines that are close together are done
+ * in one wakeup, and fetching backs off while the window
+ * is minimized or nobody has used the program for a while.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.time.Clock;
+import java.time.LocalDate;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * -------------------- RefreshScheduler class --------------------
+ */
+public class RefreshScheduler {
+    private static final long WINDOW_MILLIS = Model.WINDOW_MILLIS;
+    private static final long REFETCH_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long IDLE_REFETCH_MILLIS = TimeUnit.HOURS.toMillis(3);
+    private static final long IDLE_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    private static final long MAX_SLEEP_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long MIN_SLEEP_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long BATCH_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long BOUNDARY_SLACK_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final long MAX_JITTER_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    private final ScheduleIndex index;
+    private final ScheduleCache cache;
+    private final Clock clock;
+    private final ScheduledExecutorService executor;
+    private final Listener listener;
+    private String channelId;
+    private ScheduledFuture<?> pending;
+    private boolean visible = true;
+    private long lastActivity;
+    private long lastFetchAttempt = Long.MIN_VALUE;
+    private int failedFetches;
+
+    /**
+     * Constructor.
+     *
+     * @param index     The index holding the loaded schedules.
+     * @param cache     The cache holding when schedules were fetched.
+     * @param clock     The clock used to plan.
+     * @param executor  Where the wakeups are run.
+     * @param listener  What is told to refresh.
+     */
+    public RefreshScheduler(ScheduleIndex index, ScheduleCache cache, Clock clock,
+                            ScheduledExecutorService executor, Listener listener) {
+        this.index = index;
+        this.cache = cache;
+        this.clock = clock;
+        this.executor = executor;
+        this.listener = listener;
+        this.lastActivity = clock.millis();
+    }
+
+    /**
+     * Will plan the next wakeup for a channel, and
+     * forget the one that was planned before. Should be
+     * called when a channel is shown and when a refresh
+     * is done, since the plan depends on what is loaded.
+     *
+     * @param channelId     The shown channel.
+     */
+    public synchronized void reschedule(String channelId) {
+        this.channelId = channelId;
+        if(pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        if(channelId == null) {
+            return;
+        }
+
+        long now = clock.millis();
+        Plan plan = plan(channelId, now);
+        pending = executor.schedule(() -> wakeUp(plan), Math.max(0, plan.getAt() - now), TimeUnit.MILLISECONDS);
+        Metrics.histogram("refresh.sleep").record(plan.getAt() - now);
+    }
+
+    /**
+     * Will tell the scheduler if the window is shown.
+     * While it is minimized, nothing is shown again and
+     * fetching backs off. When it is shown again, the
+     * schedule is refreshed right away.
+     *
+     * @param visible   True if the window is shown.
+     */
+    public synchronized void setVisible(boolean visible) {
+        boolean wasVisible = this.visible;
+        this.visible = visible;
+        if(visible && !wasVisible) {
+            lastActivity = clock.millis();
+            if(channelId != null) {
+                String current = channelId;
+                executor.execute(() -> {
+                    listener.refresh(current, isFetchDue(current, clock.millis()));
+                    reschedule(current);
+                });
+            }
+        }
+    }
+
+    /**
+     * Will tell the scheduler that the user did
+     * something, so it is not idle.
+     */
+    public synchronized void userActivity() {
+        lastActivity = clock.millis();
+    }
+
+    /**
+     * Will stop every planned wakeup.
+     */
+    public synchronized void stop() {
+        reschedule(null);
+    }
+
+    /**
+     * Will plan the next wakeup. The earliest deadline
+     * decides when, and a fetch that is due within a few
+     * minutes of it is done in the same wakeup. It sleeps
+     * at most an hour, or three while minimized.
+     *
+     * @param channelId     The shown channel.
+     * @param now           The current time in epoch milliseconds.
+     * @return              The plan.
+     */
+    synchronized Plan plan(String channelId, long now) {
+        long fetchAt = nextFetch(channelId, now);
+        long showAt = visible ? nextChange(channelId, now) : Long.MAX_VALUE;
+
+        long at = Math.min(fetchAt, showAt);
+        long maxSleep = visible ? MAX_SLEEP_MILLIS : IDLE_REFETCH_MILLIS;
+        at = Math.max(now + MIN_SLEEP_MILLIS, Math.min(at, now + maxSleep));
+        boolean fetch = fetchAt <= at + BATCH_MILLIS;
+        return new Plan(at, fetch);
+    }
+
+    /**
+     * Will find when the shown schedule next has to change:
+     * when the episode on air ends or the next one starts,
+     * or when an episode enters or leaves the timespan.
+     * Changes within a minute of each other are done together.
+     *
+     * @param channelId     The shown channel.
+     * @param now           The current time.
+     * @return              The time of the change, or Long.MAX_VALUE.
+     */
+    private long nextChange(String channelId, long now) {
+        long first = Long.MAX_VALUE;
+        Episode onAir = index.onAir(channelId, now);
+        Episode next = index.nextStarting(channelId, now);
+        Episode entering = index.nextStarting(channelId, now + WINDOW_MILLIS);
+        Episode leaving = index.nextStarting(channelId, now - WINDOW_MILLIS);
+        long[] changes = {
+                onAir != null ? onAir.getEndMillis() : Long.MAX_VALUE,
+                next != null ? next.getStartMillis() : Long.MAX_VALUE,
+                entering != null ? entering.getStartMillis() - WINDOW_MILLIS : Long.MAX_VALUE,
+                leaving != null ? leaving.getStartMillis() + WINDOW_MILLIS : Long.MAX_VALUE
+        };
+        for(long change : changes) {
+            if(change > now && change < first) {
+                first = change;
+            }
+        }
+        if(first == Long.MAX_VALUE) {
+            return first;
+        }
+
+        long last = first;
+        for(long change : changes) {
+            if(change > last && change <= first + TimeUnit.MINUTES.toMillis(1)) {
+                last = change;
+            }
+        }
+        return last + ThreadLocalRandom.current().nextLong(BOUNDARY_SLACK_MILLIS + 1);
+    }
+
+    /**
+     * Will find when the schedules of the timespan should
+     * be fetched again. A schedule is fetched when its time
+     * to live in the cache has passed, but not more often
+     * than once an hour, or once every three hours while the
+     * program is minimized or idle. Failed fetches are tried
+     * again after a delay that doubles every time.
+     *
+     * @param channelId     The shown channel.
+     * @param now           The current time.
+     * @return              The time of the fetch, with jitter.
+     */
+    private long nextFetch(String channelId, long now) {
+        long due = dueAt(channelId, now);
+        if(lastFetchAttempt != Long.MIN_VALUE) {
+            long retry = Math.min(MAX_RETRY_MILLIS, RETRY_MILLIS << Math.min(failedFetches, 16));
+            due = Math.max(due, lastFetchAttempt + retry);
+        }
+        long delay = Math.max(0, due - now);
+        return due + ThreadLocalRandom.current().nextLong(Math.min(MAX_JITTER_MILLIS, delay / 10) + 1);
+    }
+
+    /**
+     * Will check if a fetch is due now.
+     *
+     * @param channelId     The shown channel.
+     * @param now           The current time.
+     * @return              True if a schedule of the timespan should be fetched.
+     */
+    private synchronized boolean isFetchDue(String channelId, long now) {
+        return dueAt(channelId, now) <= now;
+    }
+
+    /**
+     * Will find the earliest time a schedule of the
+     * timespan is due to be fetched, without jitter.
+     *
+     * @param channelId     The shown channel.
+     * @param now           The current time.
+     * @return              The time, which may have passed.
+     */
+    private long dueAt(String channelId, long now) {
+        boolean idle = !visible || now - lastActivity > IDLE_AFTER_MILLIS;
+        long interval = idle ? IDLE_REFETCH_MILLIS : REFETCH_MILLIS;
+
+        long due = Long.MAX_VALUE;
+        for(LocalDate date : Model.windowDates(now)) {
+            long fetchedAt = cache.getFetchedAt(channelId, date);
+            if(fetchedAt < 0) {
+                return now;
+            }
+            long expires = fetchedAt + cache.timeToLive(date).toMillis();
+            due = Math.min(due, Math.max(expires, fetchedAt + interval));
+        }
+        return due;
+    }
+
+    /**
+     * Will run a planned wakeup and plan the next one.
+     * If a fetch is done while the last one did not make
+     * the schedules any fresher, that one counts as failed.
+     *
+     * @param plan  The plan that is due.
+     */
+    private void wakeUp(Plan plan) {
+        String current;
+        boolean fetch;
+        synchronized (this) {
+            current = channelId;
+            if(current == null) {
+                return;
+            }
+            long now = clock.millis();
+            fetch = plan.isFetch();
+            if(fetch) {
+                if(lastFetchAttempt != Long.MIN_VALUE && dueAt(current, now) <= lastFetchAttempt) {
+                    failedFetches++;
+                } else {
+                    failedFetches = 0;
+                }
+                lastFetchAttempt = now;
+                Metrics.counter("refresh.fetches").increment();
+            } else {
+                Metrics.counter("refresh.shows").increment();
+            }
+        }
+
+        try {
+            listener.refresh(current, fetch);
+        } finally {
+            reschedule(current);
+        }
+    }
+
+    /**
+     * -------------------- Plan class --------------------
+     */
+    static final class Plan {
+        private final long at;
+        private final boolean fetch;
+
+        /**
+         * Constructor.
+         *
+         * @param at        When to wake up, in epoch milliseconds.
+         * @param fetch     True if the schedules should be fetched.
+         */
+        Plan(long at, boolean fetch) {
+            this.at = at;
+            this.fetch = fetch;
+        }
+
+        /**
+         * Returns when to wake up.
+         *
+         * @return  Epoch milliseconds.
+         */
+        long getAt() {
+            return at;
+        }
+
+        /**
+         * Will check if the wakeup should fetch.
+         *
+         * @return  True to fetch, false to only show what is loaded.
+         */
+        boolean isFetch() {
+            return fetch;
+        }
+    }
+
+    /**
+     * -------------------- Listener interface --------------------
+     */
+    public interface Listener {
+
+        /**
+         * Will refresh the shown schedule.
+         *
+         * @param channelId     The shown channel.
+         * @param fetch         True to fetch schedules that are due,
+         *                      false to only show what is loaded.
+         */
+        void refresh(String channelId, boolean fetch);
+    }
+}
@@ -0,0 +1,422 @@
+/**
+ * A local stand-in for the API of Sveriges radio, for
+ * testing and profiling the RadioInfo program without a
+ * network. It serves answers saved by RecordingTransport,
+ * and makes up synthetic answers for everything that was
+ * not recorded, so it can also pretend to have thousands
+ * of channels with dense schedules.
+ *
+ * Every answer can be slowed down, throttled or broken
+ * on purpose, to see how the program handles a bad day.
+ *
+ * java ReplayServer [--dir recording] [--port 8089] [--latency ms] [--jitter ms]
+ *                   [--bandwidth bytes/s] [--errors rate] [--resets rate] [--stalls rate]
+ *                   [--channels count] [--episodes perDay]
+ *
+ * Start the program with -Dradioinfo.baseUrl and
+ * -Dradioinfo.imageBaseUrl pointing at the server.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * -------------------- ReplayServer class --------------------
+ */
+public class ReplayServer {
+    private static final int CHUNK_BYTES = 4096;
+    private static final long STALL_MILLIS = 60_000;
+
+    static {
+        // Only the latency from the faults should be added, not a delayed acknowledgement
+        if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Path directory;
+    private final Faults faults;
+    private final int channels;
+    private final int episodesPerDay;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final AtomicLong served = new AtomicLong();
+    private volatile byte[] channelList;
+    private volatile byte[] image;
+
+    /**
+     * Constructor.
+     *
+     * @param directory         The recording to serve, or null for only synthetic answers.
+     * @param port              The port to listen on, 0 for any free port.
+     * @param faults            How the answers are slowed down or broken.
+     * @param channels          How many synthetic channels there are.
+     * @param episodesPerDay    How many episodes a synthetic schedule has.
+     * @throws IOException  The server could not be created.
+     */
+    public ReplayServer(Path directory, int port, Faults faults, int channels, int episodesPerDay) throws IOException {
+        this.directory = directory;
+        this.faults = faults;
+        this.channels = channels;
+        this.episodesPerDay = episodesPerDay;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.handlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "RadioInfo-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(handlers);
+        server.createContext("/", this::handle);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path directory = null;
+        int port = 8089;
+        long latency = 0;
+        long jitter = 0;
+        long bandwidth = 0;
+        double errors = 0;
+        double resets = 0;
+        double stalls = 0;
+        int channels = 50;
+        int episodes = 40;
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch(args[i]) {
+                case "--dir":
+                    directory = Path.of(value);
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--latency":
+                    latency = Long.parseLong(value);
+                    break;
+                case "--jitter":
+                    jitter = Long.parseLong(value);
+                    break;
+                case "--bandwidth":
+                    bandwidth = Long.parseLong(value);
+                    break;
+                case "--errors":
+                    errors = Double.parseDouble(value);
+                    break;
+                case "--resets":
+                    resets = Double.parseDouble(value);
+                    break;
+                case "--stalls":
+                    stalls = Double.parseDouble(value);
+                    break;
+                case "--channels":
+                    channels = Integer.parseInt(value);
+                    break;
+                case "--episodes":
+                    episodes = Integer.parseInt(value);
+                    break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+
+        ReplayServer server = new ReplayServer(directory, port,
+                new Faults(latency, jitter, bandwidth, errors, resets, stalls), channels, episodes);
+        server.start();
+        String baseUrl = server.getBaseUrl();
+        System.out.println("Replaying on " + baseUrl + ", start RadioInfo with");
+        System.out.println("  -Dradioinfo.baseUrl=" + baseUrl + " -Dradioinfo.imageBaseUrl=" + baseUrl);
+    }
+
+    /**
+     * Will start answering requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Will stop answering requests.
+     */
+    public void stop() {
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    /**
+     * Returns the URL to use as radioinfo.baseUrl.
+     *
+     * @return  The base URL.
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Returns how many answers have been sent.
+     *
+     * @return  The number of answers.
+     */
+    public long getServed() {
+        return served.get();
+    }
+
+    /**
+     * Will answer a request with a recorded or synthetic
+     * answer, after injecting the configured faults.
+     *
+     * @param exchange  The request.
+     * @throws IOException  The answer could not be sent.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getRawQuery();
+            Map<String, String> parameters = parse(query);
+            byte[] body = path.equals("/images")
+                    ? findImage(parameters.getOrDefault("url", ""))
+                    : findAnswer(path, query, parameters);
+
+            faults.delay();
+            if(body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            if(faults.roll(faults.errorRate)) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+            if(etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("ETag", etag);
+            exchange.getResponseHeaders().set("Content-Type", path.equals("/images")
+                    ? "application/octet-stream" : "application/xml; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            send(exchange.getResponseBody(), body);
+            served.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Will send a body, throttled to the bandwidth. A reset
+     * stops halfway, and a stall waits a long time halfway,
+     * like a connection that hangs.
+     *
+     * @param out   The response body.
+     * @param body  What to send.
+     * @throws IOException              It could not be sent.
+     * @throws InterruptedException     The thread was interrupted.
+     */
+    private void send(OutputStream out, byte[] body) throws IOException, InterruptedException {
+        boolean reset = faults.roll(faults.resetRate);
+        boolean stall = !reset && faults.roll(faults.stallRate);
+        int half = body.length / 2;
+        long start = System.nanoTime();
+        for(int offset = 0; offset < body.length; offset += CHUNK_BYTES) {
+            if(offset >= half && (reset || stall)) {
+                if(stall) {
+                    out.flush();
+                    Thread.sleep(STALL_MILLIS);
+                }
+                return;
+            }
+            int length = Math.min(CHUNK_BYTES, body.length - offset);
+            out.write(body, offset, length);
+            if(faults.bytesPerSecond > 0) {
+                long due = start + (offset + length) * 1_000_000_000L / faults.bytesPerSecond;
+                long wait = due - System.nanoTime();
+                if(wait > 0) {
+                    out.flush();
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                }
+            }
+        }
+    }
+
+    /**
+     * Will find the answer to an API request, recorded if
+     * there is one and synthetic if not.
+     *
+     * @param path          The path.
+     * @param query         The raw query, or null.
+     * @param parameters    The query parameters.
+     * @return              The answer, or null if there is none.
+     * @throws IOException  The recorded answer could not be read.
+     */
+    private byte[] findAnswer(String path, String query, Map<String, String> parameters) throws IOException {
+        if(directory != null) {
+            Path file = directory.resolve(RecordingTransport.fileName(query == null ? path : path + "?" + query));
+            if(Files.isRegularFile(file)) {
+                return Files.readAllBytes(file);
+            }
+        }
+
+        if(path.equals("/channels")) {
+            byte[] list = channelList;
+            if(list == null) {
+                list = SyntheticData.channels(channels);
+                channelList = list;
+            }
+            return list;
+        }
+        if(path.equals("/scheduledepisodes") && parameters.containsKey("channelid")) {
+            LocalDate date = parameters.containsKey("date") ? LocalDate.parse(parameters.get("date")) : LocalDate.now();
+            return SyntheticData.schedule(parameters.get("channelid"), date, episodesPerDay);
+        }
+        return null;
+    }
+
+    /**
+     * Will find an image, recorded if there is one and
+     * a plain synthetic one if not.
+     *
+     * @param url   The original image URL.
+     * @return      The image.
+     * @throws IOException  The image could not be read or made.
+     */
+    private byte[] findImage(String url) throws IOException {
+        if(directory != null) {
+            Path file = directory.resolve(RecordingTransport.imageFileName(url));
+            if(Files.isRegularFile(file)) {
+                return Files.readAllBytes(file);
+            }
+        }
+
+        byte[] synthetic = image;
+        if(synthetic == null) {
+            BufferedImage picture = new BufferedImage(400, 400, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = picture.createGraphics();
+            try {
+                g.setColor(new Color(0x1E5AA8));
+                g.fillRect(0, 0, 400, 400);
+                g.setColor(Color.WHITE);
+                g.fillOval(100, 100, 200, 200);
+            } finally {
+                g.dispose();
+            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(picture, "png", png);
+            synthetic = png.toByteArray();
+            image = synthetic;
+        }
+        return synthetic;
+    }
+
+    /**
+     * Will read the parameters of a query.
+     *
+     * @param query     The raw query, or null.
+     * @return          The parameters by name.
+     */
+    private static Map<String, String> parse(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if(query == null) {
+            return parameters;
+        }
+        for(String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if(equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * -------------------- Faults class --------------------
+     */
+    public static final class Faults {
+        private final long latencyMillis;
+        private final long jitterMillis;
+        private final long bytesPerSecond;
+        private final double errorRate;
+        private final double resetRate;
+        private final double stallRate;
+
+        /**
+         * Constructor.
+         *
+         * @param latencyMillis     How long every answer waits before it is sent.
+         * @param jitterMillis      How much random time is added to the wait.
+         * @param bytesPerSecond    How fast bodies are sent, 0 for as fast as possible.
+         * @param errorRate         How many answers are 503, from 0 to 1.
+         * @param resetRate         How many bodies stop halfway, from 0 to 1.
+         * @param stallRate         How many bodies hang halfway, from 0 to 1.
+         */
+        public Faults(long latencyMillis, long jitterMillis, long bytesPerSecond,
+                      double errorRate, double resetRate, double stallRate) {
+            this.latencyMillis = latencyMillis;
+            this.jitterMillis = jitterMillis;
+            this.bytesPerSecond = bytesPerSecond;
+            this.errorRate = errorRate;
+            this.resetRate = resetRate;
+            this.stallRate = stallRate;
+        }
+
+        /**
+         * Returns faults that do nothing.
+         *
+         * @return  The faults.
+         */
+        public static Faults none() {
+            return new Faults(0, 0, 0, 0, 0, 0);
+        }
+
+        /**
+         * Will wait the latency and jitter.
+         *
+         * @throws InterruptedException     The thread was interrupted.
+         */
+        private void delay() throws InterruptedException {
+            long millis = latencyMillis + (jitterMillis > 0 ? ThreadLocalRandom.current().nextLong(jitterMillis + 1) : 0);
+            if(millis > 0) {
+                Thread.sleep(millis);
+            }
+        }
+
+        /**
+         * Will decide at random if a fault happens.
+         *
+         * @param rate  How often it happens, from 0 to 1.
+         * @return      True if it happens this time.
+         */
+        private boolean roll(double rate) {
+            return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+        }
+    }
+}
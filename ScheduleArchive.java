@@ -0,0 +1,610 @@
+/**
+ * An archive of every schedule the RadioInfo program has
+ * fetched, kept on disk for months so old schedules can
+ * be looked at after they have left the timespan.
+ *
+ * The archive is append-only and split in one segment per
+ * channel and date. A segment is two files: fixed-width
+ * records with the times of each episode, and a heap with
+ * the texts, where every distinct text is stored once and
+ * the records point at it by offset. Reads map the files
+ * into memory, so a range scan only looks at the times
+ * and only the episodes that match are turned into objects.
+ *
+ * A schedule that is fetched again only adds the episodes
+ * that changed. When several records have the same start
+ * time, the one archived last is the one returned.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+/**
+ * -------------------- ScheduleArchive class --------------------
+ */
+public class ScheduleArchive {
+    private static final int RECORD_MAGIC = 0x52494152;
+    private static final int HEAP_MAGIC = 0x52494148;
+    private static final int VERSION = 1;
+    private static final int RECORD_HEADER_BYTES = 16;
+    private static final int HEAP_HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 40;
+    private static final int OPEN_WRITERS = 32;
+    private static final int MAPPED_SEGMENTS = 128;
+    private static final int NO_TEXT = -1;
+
+    private final Path directory;
+    private final LinkedHashMap<Path, SegmentWriter> writers = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Path, MappedSegment> mapped = new LinkedHashMap<>(16, 0.75f, true);
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RadioInfo-archive");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor.
+     *
+     * @param directory     Where the segments are kept.
+     */
+    public ScheduleArchive(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns where the archive is kept. Archiving is off
+     * unless the property radioinfo.archive is set, either
+     * to a directory or to "on" for .radioinfo/archive in
+     * the home directory.
+     *
+     * @return  The archive directory, or null if it is off.
+     */
+    public static Path defaultDirectory() {
+        String directory = System.getProperty("radioinfo.archive");
+        if(directory == null || directory.isEmpty() || "off".equals(directory)) {
+            return null;
+        }
+        if("on".equals(directory)) {
+            return Path.of(System.getProperty("user.home"), ".radioinfo", "archive");
+        }
+        return Path.of(directory);
+    }
+
+    /**
+     * Will archive a fetched schedule in the background,
+     * so the refresh that fetched it does not wait for
+     * the disk.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date of the schedule.
+     * @param episodes      The episodes on that date.
+     */
+    public void append(String channelId, LocalDate date, List<Episode> episodes) {
+        List<Episode> copy = new ArrayList<>(episodes);
+        writer.execute(() -> {
+            try {
+                write(channelId, date, copy);
+            } catch (IOException e) {
+                Metrics.counter("archive.failed").increment();
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Will wait until everything given to append()
+     * so far has been written.
+     *
+     * @throws InterruptedException     The thread was interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        try {
+            writer.submit(() -> { }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Will find the archived episodes on a channel that are
+     * on air at some point within a time range. An episode
+     * that crosses midnight is in the segments of both dates,
+     * and one whose texts changed is archived again, so only
+     * the last record of each start time and title is kept.
+     *
+     * @param channelId     The channel ID.
+     * @param from          Start of the range in epoch milliseconds.
+     * @param to            End of the range in epoch milliseconds.
+     * @return              The episodes, sorted by start time.
+     * @throws IOException  A segment could not be read.
+     */
+    public List<Episode> query(String channelId, long from, long to) throws IOException {
+        long start = System.nanoTime();
+        List<Episode> result = new ArrayList<>();
+        if(to <= from) {
+            return result;
+        }
+
+        LocalDate first = Instant.ofEpochMilli(from).atZone(Model.SWEDISH_ZONE).toLocalDate().minusDays(1);
+        LocalDate last = Instant.ofEpochMilli(to - 1).atZone(Model.SWEDISH_ZONE).toLocalDate();
+        List<Episode> found = new ArrayList<>();
+        for(LocalDate date = first; !date.isAfter(last); date = date.plusDays(1)) {
+            MappedSegment segment = map(segmentPath(channelId, date));
+            if(segment != null) {
+                segment.scan(from, to, found);
+            }
+        }
+        Map<String, Episode> unique = new LinkedHashMap<>();
+        for(Episode episode : found) {
+            unique.put(episode.getStartMillis() + "\n" + episode.getTitle(), episode);
+        }
+        result.addAll(unique.values());
+        result.sort(Comparator.comparingLong(Episode::getStartMillis));
+        Metrics.time("archive.query", start);
+        return result;
+    }
+
+    /**
+     * Returns the dates a channel has archived schedules for.
+     *
+     * @param channelId     The channel ID.
+     * @return              The dates, oldest first.
+     * @throws IOException  The archive could not be listed.
+     */
+    public List<LocalDate> dates(String channelId) throws IOException {
+        List<LocalDate> dates = new ArrayList<>();
+        Path channelDirectory = directory.resolve(safeName(channelId));
+        if(!Files.isDirectory(channelDirectory)) {
+            return dates;
+        }
+        try (Stream<Path> files = Files.list(channelDirectory)) {
+            files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(".rec"))
+                    .forEach(name -> dates.add(LocalDate.parse(name.substring(0, name.length() - 4))));
+        }
+        dates.sort(null);
+        return dates;
+    }
+
+    /**
+     * Will append the episodes of a schedule that are not
+     * already in its segment. The texts are written and
+     * forced to disk before the records pointing at them,
+     * so a crash never leaves a record without its texts.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date of the schedule.
+     * @param episodes      The episodes on that date.
+     * @throws IOException  The segment could not be written.
+     */
+    private void write(String channelId, LocalDate date, List<Episode> episodes) throws IOException {
+        SegmentWriter segment = writer(segmentPath(channelId, date));
+        long archivedAt = System.currentTimeMillis();
+        ByteBuffer records = ByteBuffer.allocate(episodes.size() * RECORD_BYTES);
+        int added = 0;
+        for(Episode episode : episodes) {
+            int title = segment.text(episode.getTitle());
+            int description = segment.text(episode.getDescription());
+            int image = segment.text(episode.getImage());
+            String key = episode.getStartMillis() + ":" + episode.getEndMillis() + ":"
+                    + title + ":" + description + ":" + image;
+            if(!segment.keys.add(key)) {
+                continue;
+            }
+            records.putLong(episode.getStartMillis());
+            records.putLong(episode.getEndMillis());
+            records.putLong(archivedAt);
+            records.putInt(title);
+            records.putInt(description);
+            records.putInt(image);
+            records.putInt(0);
+            added++;
+        }
+        if(added == 0) {
+            return;
+        }
+
+        segment.heap.force(false);
+        records.flip();
+        while(records.hasRemaining()) {
+            segment.records.write(records);
+        }
+        segment.records.force(false);
+        Metrics.counter("archive.records").add(added);
+    }
+
+    /**
+     * Returns the open writer for a segment, and opens
+     * it the first time. Only a few writers are kept open,
+     * the one used least recently is closed.
+     *
+     * @param recordFile    The record file of the segment.
+     * @return              The writer.
+     * @throws IOException  The segment could not be opened.
+     */
+    private SegmentWriter writer(Path recordFile) throws IOException {
+        synchronized (writers) {
+            SegmentWriter segment = writers.get(recordFile);
+            if(segment != null) {
+                return segment;
+            }
+            segment = SegmentWriter.open(recordFile, heapPath(recordFile));
+            writers.put(recordFile, segment);
+            if(writers.size() > OPEN_WRITERS) {
+                Iterator<SegmentWriter> eldest = writers.values().iterator();
+                eldest.next().close();
+                eldest.remove();
+            }
+            return segment;
+        }
+    }
+
+    /**
+     * Returns a segment mapped into memory. A mapping is
+     * reused until the segment has grown past it.
+     *
+     * @param recordFile    The record file of the segment.
+     * @return              The mapped segment, or null if there is none.
+     * @throws IOException  The segment could not be mapped.
+     */
+    private MappedSegment map(Path recordFile) throws IOException {
+        if(!Files.isRegularFile(recordFile)) {
+            return null;
+        }
+        long size = Files.size(recordFile);
+        synchronized (mapped) {
+            MappedSegment segment = mapped.get(recordFile);
+            if(segment != null && segment.recordBytes == size) {
+                return segment;
+            }
+        }
+
+        MappedSegment segment = MappedSegment.map(recordFile, heapPath(recordFile));
+        synchronized (mapped) {
+            mapped.put(recordFile, segment);
+            if(mapped.size() > MAPPED_SEGMENTS) {
+                Iterator<MappedSegment> eldest = mapped.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return segment;
+    }
+
+    /**
+     * Returns the record file of a segment.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @return              The path.
+     */
+    private Path segmentPath(String channelId, LocalDate date) {
+        return directory.resolve(safeName(channelId)).resolve(date + ".rec");
+    }
+
+    /**
+     * Returns the heap file that belongs to a record file.
+     *
+     * @param recordFile    The record file.
+     * @return              The path.
+     */
+    private static Path heapPath(Path recordFile) {
+        String name = recordFile.getFileName().toString();
+        return recordFile.resolveSibling(name.substring(0, name.length() - 4) + ".str");
+    }
+
+    /**
+     * Will make a channel ID safe to use as a directory name.
+     * Every character other than a letter, digit or dash is
+     * percent-encoded, so two IDs never get the same name.
+     *
+     * @param channelId     The channel ID.
+     * @return              The name.
+     */
+    private static String safeName(String channelId) {
+        StringBuilder name = new StringBuilder(channelId.length());
+        for(byte b : channelId.getBytes(StandardCharsets.UTF_8)) {
+            if((b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '-') {
+                name.append((char) b);
+            } else {
+                name.append('%').append(String.format("%02X", b & 0xFF));
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * -------------------- SegmentWriter class --------------------
+     */
+    private static final class SegmentWriter {
+        private final FileChannel records;
+        private final FileChannel heap;
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final Set<String> keys = new HashSet<>();
+
+        /**
+         * Constructor. Takes files that are already checked.
+         *
+         * @param records   The record file, positioned at its end.
+         * @param heap      The heap file, positioned at its end.
+         */
+        private SegmentWriter(FileChannel records, FileChannel heap) {
+            this.records = records;
+            this.heap = heap;
+        }
+
+        /**
+         * Will open a segment for appending, and create it if
+         * it is new. The texts and records already in it are
+         * read, so nothing is stored twice. A record or text
+         * that was only partly written when the program stopped
+         * is cut off.
+         *
+         * @param recordFile    The record file.
+         * @param heapFile      The heap file.
+         * @return              The writer.
+         * @throws IOException  The segment could not be opened or is not an archive segment.
+         */
+        private static SegmentWriter open(Path recordFile, Path heapFile) throws IOException {
+            Files.createDirectories(recordFile.getParent());
+            FileChannel records = FileChannel.open(recordFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            FileChannel heap = FileChannel.open(heapFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                SegmentWriter segment = new SegmentWriter(records, heap);
+                segment.readHeap();
+                segment.readRecords();
+                return segment;
+            } catch (IOException | RuntimeException e) {
+                records.close();
+                heap.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Will read every text in the heap, or write the
+         * header if the heap is new.
+         *
+         * @throws IOException  The heap could not be read.
+         */
+        private void readHeap() throws IOException {
+            if(heap.size() < HEAP_HEADER_BYTES) {
+                heap.truncate(0);
+                heap.write(ByteBuffer.allocate(HEAP_HEADER_BYTES).putInt(HEAP_MAGIC).putInt(VERSION).flip(), 0);
+                heap.position(HEAP_HEADER_BYTES);
+                return;
+            }
+
+            MappedByteBuffer buffer = heap.map(FileChannel.MapMode.READ_ONLY, 0, heap.size());
+            checkHeader(buffer, HEAP_MAGIC);
+            int offset = HEAP_HEADER_BYTES;
+            while(offset + 4 <= buffer.limit()) {
+                int length = buffer.getInt(offset);
+                if(length < 0 || offset + 4 + length > buffer.limit()) {
+                    break;
+                }
+                offsets.put(readText(buffer, offset), offset);
+                offset += 4 + length;
+            }
+            heap.truncate(offset);
+            heap.position(offset);
+        }
+
+        /**
+         * Will read the key of every record, or write the
+         * header if the segment is new.
+         *
+         * @throws IOException  The records could not be read.
+         */
+        private void readRecords() throws IOException {
+            if(records.size() < RECORD_HEADER_BYTES) {
+                records.truncate(0);
+                records.write(ByteBuffer.allocate(RECORD_HEADER_BYTES).putInt(RECORD_MAGIC)
+                        .putInt(VERSION).putInt(RECORD_BYTES).putInt(0).flip(), 0);
+                records.position(RECORD_HEADER_BYTES);
+                return;
+            }
+
+            long complete = RECORD_HEADER_BYTES + (records.size() - RECORD_HEADER_BYTES) / RECORD_BYTES * RECORD_BYTES;
+            MappedByteBuffer buffer = records.map(FileChannel.MapMode.READ_ONLY, 0, complete);
+            checkHeader(buffer, RECORD_MAGIC);
+            for(int offset = RECORD_HEADER_BYTES; offset < complete; offset += RECORD_BYTES) {
+                keys.add(buffer.getLong(offset) + ":" + buffer.getLong(offset + 8) + ":"
+                        + buffer.getInt(offset + 24) + ":" + buffer.getInt(offset + 28) + ":"
+                        + buffer.getInt(offset + 32));
+            }
+            records.truncate(complete);
+            records.position(complete);
+        }
+
+        /**
+         * Returns the offset of a text in the heap, and
+         * appends it the first time it is seen.
+         *
+         * @param text  The text, or null.
+         * @return      The offset, or NO_TEXT for null.
+         * @throws IOException  The text could not be written.
+         */
+        private int text(String text) throws IOException {
+            if(text == null) {
+                return NO_TEXT;
+            }
+            Integer known = offsets.get(text);
+            if(known != null) {
+                return known;
+            }
+
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            long offset = heap.position();
+            if(offset + 4 + bytes.length > Integer.MAX_VALUE) {
+                throw new IOException("Archive segment is full");
+            }
+            ByteBuffer entry = ByteBuffer.allocate(4 + bytes.length).putInt(bytes.length).put(bytes).flip();
+            while(entry.hasRemaining()) {
+                heap.write(entry);
+            }
+            offsets.put(text, (int) offset);
+            Metrics.counter("archive.textBytes").add(bytes.length);
+            return (int) offset;
+        }
+
+        /**
+         * Will close the files of the segment.
+         */
+        private void close() {
+            try {
+                records.close();
+                heap.close();
+            } catch (IOException ignored) {
+                // Everything written has already been forced to disk.
+            }
+        }
+    }
+
+    /**
+     * -------------------- MappedSegment class --------------------
+     */
+    private static final class MappedSegment {
+        private final MappedByteBuffer records;
+        private final MappedByteBuffer heap;
+        private final long recordBytes;
+
+        /**
+         * Constructor. Takes mappings that are already checked.
+         *
+         * @param records       The mapped record file.
+         * @param heap          The mapped heap file.
+         * @param recordBytes   The size of the record file when it was mapped.
+         */
+        private MappedSegment(MappedByteBuffer records, MappedByteBuffer heap, long recordBytes) {
+            this.records = records;
+            this.heap = heap;
+            this.recordBytes = recordBytes;
+        }
+
+        /**
+         * Will map a segment into memory. The mapping stays
+         * valid after the files are closed. The heap is mapped
+         * after the records, so it holds every text they use.
+         *
+         * @param recordFile    The record file.
+         * @param heapFile      The heap file.
+         * @return              The mapped segment.
+         * @throws IOException  The segment could not be mapped or is not an archive segment.
+         */
+        private static MappedSegment map(Path recordFile, Path heapFile) throws IOException {
+            try (FileChannel records = FileChannel.open(recordFile, StandardOpenOption.READ);
+                 FileChannel heap = FileChannel.open(heapFile, StandardOpenOption.READ)) {
+                long recordBytes = records.size();
+                MappedByteBuffer recordBuffer = records.map(FileChannel.MapMode.READ_ONLY, 0, recordBytes);
+                MappedByteBuffer heapBuffer = heap.map(FileChannel.MapMode.READ_ONLY, 0, heap.size());
+                if(recordBytes >= RECORD_HEADER_BYTES) {
+                    checkHeader(recordBuffer, RECORD_MAGIC);
+                }
+                if(heap.size() >= HEAP_HEADER_BYTES) {
+                    checkHeader(heapBuffer, HEAP_MAGIC);
+                }
+                return new MappedSegment(recordBuffer, heapBuffer, recordBytes);
+            }
+        }
+
+        /**
+         * Will add the episodes that are on air at some point
+         * within a range. Only the times are read for the rest.
+         * If a start time has several records, the one archived
+         * last is used.
+         *
+         * @param from      Start of the range in epoch milliseconds.
+         * @param to        End of the range in epoch milliseconds.
+         * @param result    Where the episodes are added.
+         */
+        private void scan(long from, long to, List<Episode> result) {
+            Map<Long, Integer> latest = new HashMap<>();
+            int end = records.limit() - (records.limit() - RECORD_HEADER_BYTES) % RECORD_BYTES;
+            for(int offset = RECORD_HEADER_BYTES; offset < end; offset += RECORD_BYTES) {
+                long start = records.getLong(offset);
+                if(start < to && records.getLong(offset + 8) > from) {
+                    Integer known = latest.get(start);
+                    if(known == null || records.getLong(offset + 16) >= records.getLong(known + 16)) {
+                        latest.put(start, offset);
+                    }
+                }
+            }
+
+            for(int offset : latest.values()) {
+                result.add(new Episode(text(records.getInt(offset + 28)), text(records.getInt(offset + 24)),
+                        records.getLong(offset), records.getLong(offset + 8), text(records.getInt(offset + 32))));
+            }
+        }
+
+        /**
+         * Will read a text from the heap.
+         *
+         * @param offset    The offset of the text, or NO_TEXT.
+         * @return          The text, or null.
+         */
+        private String text(int offset) {
+            if(offset == NO_TEXT || offset + 4 > heap.limit()) {
+                return null;
+            }
+            return readText(heap, offset);
+        }
+    }
+
+    /**
+     * Will read a text stored as its length and UTF-8 bytes.
+     *
+     * @param buffer    The heap.
+     * @param offset    The offset of the text.
+     * @return          The text.
+     */
+    private static String readText(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        buffer.get(offset + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Will check that a file starts with the right
+     * magic number and version.
+     *
+     * @param buffer    The mapped file.
+     * @param magic     The magic number.
+     * @throws IOException  The file is not an archive file of this version.
+     */
+    private static void checkHeader(ByteBuffer buffer, int magic) throws IOException {
+        if(buffer.getInt(0) != magic || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not an archive segment of version " + VERSION);
+        }
+    }
+}
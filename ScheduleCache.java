@@ -0,0 +1,306 @@
+/**
+ * A cache for the RadioInfo program that keeps
+ * the schedules that have been fetched, one entry
+ * per channel and date. How long an entry is kept
+ * depends on the date: old schedules barely change,
+ * while today's schedule can change at any time.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * -------------------- ScheduleCache class --------------------
+ */
+public class ScheduleCache {
+    private static final Duration OLD_TTL = Duration.ofHours(24);
+    private static final Duration YESTERDAY_TTL = Duration.ofHours(6);
+    private static final Duration TODAY_TTL = Duration.ofMinutes(10);
+    private static final Duration FUTURE_TTL = Duration.ofMinutes(30);
+
+    private int maxEntries;
+    private final Clock clock;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries    How many schedules the cache may hold.
+     * @param clock         The clock used to decide when entries expire.
+     */
+    public ScheduleCache(int maxEntries, Clock clock) {
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    /**
+     * Will return the cached schedule for a channel
+     * on a date, if there is one that has not expired.
+     * An entry expires when its time to live has passed
+     * since it was fetched. Expired entries are kept until
+     * they are replaced or evicted, see getStale().
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @return              The episodes, or null if not cached.
+     */
+    public synchronized ArrayList<Episode> get(String channelId, LocalDate date) {
+        String key = key(channelId, date);
+        Entry entry = entries.get(key);
+        if(entry == null) {
+            misses++;
+            return null;
+        }
+        if(entry.fetchedAt + timeToLive(date).toMillis() <= clock.millis()) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.episodes;
+    }
+
+    /**
+     * Will return the cached schedule for a channel on a
+     * date even if it has expired. Used when Sveriges radio
+     * can not be reached, since an old schedule is better
+     * than none. Does not count as a lookup.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @return              The episodes, or null if not cached.
+     */
+    public synchronized ArrayList<Episode> getStale(String channelId, LocalDate date) {
+        Entry entry = entries.get(key(channelId, date));
+        return entry != null ? entry.episodes : null;
+    }
+
+    /**
+     * Will tell if there is a cached schedule for a
+     * channel on a date that has not expired. Does not
+     * count as a lookup.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @return              True if get() would find it.
+     */
+    public synchronized boolean isFresh(String channelId, LocalDate date) {
+        Entry entry = entries.get(key(channelId, date));
+        return entry != null && entry.fetchedAt + timeToLive(date).toMillis() > clock.millis();
+    }
+
+    /**
+     * Will return when the cached schedule for a channel
+     * on a date was fetched. Does not count as a lookup.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @return              Epoch milliseconds, or -1 if not cached.
+     */
+    public synchronized long getFetchedAt(String channelId, LocalDate date) {
+        Entry entry = entries.get(key(channelId, date));
+        return entry != null ? entry.fetchedAt : -1;
+    }
+
+    /**
+     * Will save a schedule for a channel on a date. If
+     * the cache is full the least recently used entry
+     * is thrown away.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @param episodes      The episodes on that date.
+     */
+    public void put(String channelId, LocalDate date, ArrayList<Episode> episodes) {
+        put(channelId, date, episodes, clock.millis());
+    }
+
+    /**
+     * Will save a schedule that was fetched at an earlier
+     * time, like one read from a saved snapshot. It expires
+     * as if it had been put in the cache when it was fetched.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @param episodes      The episodes on that date.
+     * @param fetchedAt     When the schedule was fetched, in epoch milliseconds.
+     */
+    public synchronized void put(String channelId, LocalDate date, ArrayList<Episode> episodes, long fetchedAt) {
+        entries.put(key(channelId, date), new Entry(channelId, date, episodes, fetchedAt));
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while(entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Will let the cache hold at least as many schedules
+     * as asked for, like when more channels were found
+     * than the cache was made for.
+     *
+     * @param minEntries    How many schedules the cache must be able to hold.
+     */
+    public synchronized void ensureCapacity(int minEntries) {
+        maxEntries = Math.max(maxEntries, minEntries);
+    }
+
+    /**
+     * Returns how many schedules the cache may hold.
+     *
+     * @return  The number of schedules.
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Will return every schedule in the cache,
+     * expired or not, without counting as a lookup.
+     *
+     * @return  A copy of all entries.
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /**
+     * Will decide how long a schedule for a date
+     * is kept. The further back in time the date is,
+     * the less likely it is that the schedule changes.
+     *
+     * @param date  The date of the schedule.
+     * @return      How long the schedule is kept.
+     */
+    public Duration timeToLive(LocalDate date) {
+        long days = ChronoUnit.DAYS.between(LocalDate.now(clock.withZone(Model.SWEDISH_ZONE)), date);
+        if(days < -1) {
+            return OLD_TTL;
+        }
+        if(days == -1) {
+            return YESTERDAY_TTL;
+        }
+        if(days == 0) {
+            return TODAY_TTL;
+        }
+        return FUTURE_TTL;
+    }
+
+    /**
+     * Returns how many lookups found a schedule.
+     *
+     * @return  The number of hits.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns how many lookups did not find a schedule.
+     *
+     * @return  The number of misses.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns how many schedules have been thrown
+     * away because the cache was full.
+     *
+     * @return  The number of evictions.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Will create the key for a channel and date.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @return              The key.
+     */
+    private static String key(String channelId, LocalDate date) {
+        return channelId + "/" + date;
+    }
+
+    /**
+     * -------------------- Entry class --------------------
+     */
+    public static final class Entry {
+        private final String channelId;
+        private final LocalDate date;
+        private final ArrayList<Episode> episodes;
+        private final long fetchedAt;
+
+        /**
+         * Constructor.
+         *
+         * @param channelId     The channel ID.
+         * @param date          The date.
+         * @param episodes      The cached episodes.
+         * @param fetchedAt     When the schedule was fetched, in epoch milliseconds.
+         */
+        public Entry(String channelId, LocalDate date, ArrayList<Episode> episodes, long fetchedAt) {
+            this.channelId = channelId;
+            this.date = date;
+            this.episodes = episodes;
+            this.fetchedAt = fetchedAt;
+        }
+
+        /**
+         * Returns the channel ID.
+         *
+         * @return  The channel ID.
+         */
+        public String getChannelId() {
+            return channelId;
+        }
+
+        /**
+         * Returns the date of the schedule.
+         *
+         * @return  The date.
+         */
+        public LocalDate getDate() {
+            return date;
+        }
+
+        /**
+         * Returns the episodes on the date.
+         *
+         * @return  The episodes.
+         */
+        public ArrayList<Episode> getEpisodes() {
+            return episodes;
+        }
+
+        /**
+         * Returns when the schedule was fetched.
+         *
+         * @return  Epoch milliseconds.
+         */
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/**
+ * An index over the schedules of every loaded channel
+ * in the RadioInfo program. Each channel keeps its
+ * episodes in arrays sorted by time, so questions like
+ * "what is on right now" are answered with a binary
+ * search per channel instead of a scan.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * -------------------- ScheduleIndex class --------------------
+ */
+public class ScheduleIndex {
+    private static final long KEEP_MILLIS = Math.max(TimeUnit.DAYS.toMillis(2), Model.WINDOW_MILLIS + TimeUnit.DAYS.toMillis(1));
+
+    private final Map<String, ChannelSchedule> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Will add newly fetched episodes for a channel. Episodes
+     * already in the index that start within the time span of
+     * the new ones are replaced, the rest are kept. Episodes
+     * that ended more than two days ago, or a day before the
+     * timespan if it is longer, are dropped.
+     *
+     * @param channelId     The channel ID.
+     * @param episodes      The new episodes.
+     */
+    public void update(String channelId, List<Episode> episodes) {
+        if(episodes.isEmpty()) {
+            return;
+        }
+        channels.compute(channelId, (id, old) -> ChannelSchedule.merge(old, episodes,
+                System.currentTimeMillis() - KEEP_MILLIS));
+    }
+
+    /**
+     * Will forget everything about a channel.
+     *
+     * @param channelId     The channel ID.
+     */
+    public void remove(String channelId) {
+        channels.remove(channelId);
+    }
+
+    /**
+     * Will find the episode that is on air at a
+     * certain time on every channel.
+     *
+     * @param time  The time in epoch milliseconds.
+     * @return      The episode on air per channel ID. Channels
+     *              with nothing on air are left out.
+     */
+    public Map<String, Episode> onAir(long time) {
+        Map<String, Episode> result = new HashMap<>();
+        for(Map.Entry<String, ChannelSchedule> entry : channels.entrySet()) {
+            Episode episode = entry.getValue().onAir(time);
+            if(episode != null) {
+                result.put(entry.getKey(), episode);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Will find the episode on a channel that
+     * is on air at a certain time.
+     *
+     * @param channelId     The channel ID.
+     * @param time          The time in epoch milliseconds.
+     * @return              The episode, or null if nothing is on air.
+     */
+    public Episode onAir(String channelId, long time) {
+        ChannelSchedule schedule = channels.get(channelId);
+        return schedule != null ? schedule.onAir(time) : null;
+    }
+
+    /**
+     * Will find the first episode that starts after
+     * a certain time on every channel.
+     *
+     * @param time  The time in epoch milliseconds.
+     * @return      The next episode per channel ID.
+     */
+    public Map<String, Episode> nextStarting(long time) {
+        Map<String, Episode> result = new HashMap<>();
+        for(Map.Entry<String, ChannelSchedule> entry : channels.entrySet()) {
+            Episode episode = entry.getValue().nextStarting(time);
+            if(episode != null) {
+                result.put(entry.getKey(), episode);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Will find the first episode on a channel
+     * that starts after a certain time.
+     *
+     * @param channelId     The channel ID.
+     * @param time          The time in epoch milliseconds.
+     * @return              The episode, or null if there is none.
+     */
+    public Episode nextStarting(String channelId, long time) {
+        ChannelSchedule schedule = channels.get(channelId);
+        return schedule != null ? schedule.nextStarting(time) : null;
+    }
+
+    /**
+     * Will find the episodes on a channel that are
+     * on air at some point within a time window.
+     *
+     * @param channelId     The channel ID.
+     * @param from          Start of the window in epoch milliseconds.
+     * @param to            End of the window in epoch milliseconds.
+     * @return              The episodes, sorted by start time.
+     */
+    public List<Episode> window(String channelId, long from, long to) {
+        ChannelSchedule schedule = channels.get(channelId);
+        return schedule != null ? schedule.window(from, to) : new ArrayList<>();
+    }
+
+    /**
+     * Will find the episodes on every channel that
+     * are on air at some point within a time window.
+     *
+     * @param from  Start of the window in epoch milliseconds.
+     * @param to    End of the window in epoch milliseconds.
+     * @return      The episodes per channel ID.
+     */
+    public Map<String, List<Episode>> window(long from, long to) {
+        Map<String, List<Episode>> result = new HashMap<>();
+        for(Map.Entry<String, ChannelSchedule> entry : channels.entrySet()) {
+            List<Episode> episodes = entry.getValue().window(from, to);
+            if(!episodes.isEmpty()) {
+                result.put(entry.getKey(), episodes);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * -------------------- ChannelSchedule class --------------------
+     */
+    private static final class ChannelSchedule {
+        private final long[] starts;
+        private final long[] ends;
+        private final Episode[] episodes;
+
+        /**
+         * Constructor. The episodes must be sorted by start time.
+         *
+         * @param episodes  The episodes of the channel.
+         */
+        private ChannelSchedule(Episode[] episodes) {
+            this.episodes = episodes;
+            this.starts = new long[episodes.length];
+            this.ends = new long[episodes.length];
+            long latestEnd = Long.MIN_VALUE;
+            for(int i = 0; i < episodes.length; i++) {
+                starts[i] = episodes[i].getStartMillis();
+                latestEnd = Math.max(latestEnd, episodes[i].getEndMillis());
+                ends[i] = latestEnd;
+            }
+        }
+
+        /**
+         * Will build a new schedule from an old one and
+         * some new episodes.
+         *
+         * @param old           The old schedule, or null.
+         * @param fresh         The new episodes.
+         * @param keepAfter     Episodes ending before this are dropped.
+         * @return              The new schedule.
+         */
+        private static ChannelSchedule merge(ChannelSchedule old, List<Episode> fresh, long keepAfter) {
+            long first = Long.MAX_VALUE;
+            long last = Long.MIN_VALUE;
+            for(Episode episode : fresh) {
+                first = Math.min(first, episode.getStartMillis());
+                last = Math.max(last, episode.getStartMillis());
+            }
+
+            List<Episode> merged = new ArrayList<>(fresh);
+            if(old != null) {
+                for(Episode episode : old.episodes) {
+                    long start = episode.getStartMillis();
+                    if((start < first || start > last) && episode.getEndMillis() >= keepAfter) {
+                        merged.add(episode);
+                    }
+                }
+            }
+
+            Episode[] sorted = merged.toArray(new Episode[0]);
+            Arrays.sort(sorted, Comparator.comparingLong(Episode::getStartMillis));
+            return new ChannelSchedule(sorted);
+        }
+
+        /**
+         * Returns the index of the first start that is
+         * greater than a time.
+         *
+         * @param time  The time.
+         * @return      The index, or the length if there is none.
+         */
+        private int firstStartAfter(long time) {
+            int low = 0;
+            int high = starts.length;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(starts[middle] <= time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Returns the index of the first episode whose end,
+         * or the end of an episode before it, is after a time.
+         * The ends array holds the running maximum of the end
+         * times, so it is sorted even if episodes overlap.
+         *
+         * @param time  The time.
+         * @return      The index, or the length if there is none.
+         */
+        private int firstEndAfter(long time) {
+            int low = 0;
+            int high = ends.length;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(ends[middle] <= time) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * Will find the latest starting episode
+         * that is on air at a time.
+         *
+         * @param time  The time.
+         * @return      The episode, or null.
+         */
+        private Episode onAir(long time) {
+            for(int i = firstStartAfter(time) - 1; i >= 0 && ends[i] > time; i--) {
+                if(episodes[i].getEndMillis() > time) {
+                    return episodes[i];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Will find the first episode that
+         * starts after a time.
+         *
+         * @param time  The time.
+         * @return      The episode, or null.
+         */
+        private Episode nextStarting(long time) {
+            int index = firstStartAfter(time);
+            return index < episodes.length ? episodes[index] : null;
+        }
+
+        /**
+         * Will find the episodes that are on air
+         * at some point within a window.
+         *
+         * @param from  Start of the window.
+         * @param to    End of the window.
+         * @return      The episodes.
+         */
+        private List<Episode> window(long from, long to) {
+            int first = firstEndAfter(from);
+            int last = firstStartAfter(to - 1);
+            List<Episode> result = new ArrayList<>(Math.max(0, last - first));
+            for(int i = first; i < last; i++) {
+                if(episodes[i].getEndMillis() > from) {
+                    result.add(episodes[i]);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,464 @@
+/**
+ * A headless mode for the RadioInfo program. Instead of
+ * showing a window, it serves the channels and schedules
+ * as JSON over HTTP, so many clients can share one Model
+ * and its cache.
+ *
+ * GET /channels                   All channels.
+ * GET /channels/{id}/schedule     Episodes within the timespan for a channel.
+ * GET /channels/{id}/history      Archived episodes, ?from=...&to=... as ISO instants.
+ * GET /nowplaying                 What is on air now on every loaded channel.
+ *
+ * The history is only kept if radioinfo.archive is set.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * -------------------- ScheduleServer class --------------------
+ */
+public class ScheduleServer {
+    private static final int HANDLER_THREADS = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+    private static final Pattern CHANNEL_ID = Pattern.compile("\\d+");
+    private static final long REFRESH_MINUTES = 60;
+
+    static {
+        // Without it every answer waits for a delayed acknowledgement from the client
+        if(System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final Model model;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "RadioInfo-server-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Constructor.
+     *
+     * @param model     The model every request is answered from.
+     * @param port      The port to listen on.
+     * @throws IOException  The server could not be created.
+     */
+    public ScheduleServer(Model model, int port) throws IOException {
+        this.model = model;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.handlers = Executors.newFixedThreadPool(HANDLER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "RadioInfo-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(handlers);
+        server.createContext("/channels", this::handleChannels);
+        server.createContext("/nowplaying", this::handleNowPlaying);
+    }
+
+    /**
+     * Will fetch the channels, start warming the schedule
+     * cache for all of them and start answering requests.
+     * Every hour after that the channels are fetched again
+     * and the schedules that have expired are warmed again.
+     *
+     * @throws Exception    The channels could not be fetched.
+     */
+    public void start() throws Exception {
+        List<Channel> channels = model.findAllChannelsAsync().get();
+        prefetch(channels);
+
+        server.start();
+        refresher.scheduleWithFixedDelay(this::refresh, REFRESH_MINUTES, REFRESH_MINUTES, TimeUnit.MINUTES);
+        System.out.println("Serving " + channels.size() + " channels on port " + getPort());
+    }
+
+    /**
+     * Returns the port the server listens on.
+     *
+     * @return  The port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Will fetch the channels again and warm the schedules
+     * that are not cached. If the channels can not be fetched,
+     * the ones from before are kept.
+     */
+    private void refresh() {
+        try {
+            prefetch(model.findAllChannelsAsync().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("The channels could not be refreshed: " + e.getCause());
+        }
+    }
+
+    /**
+     * Will start warming the schedule cache for channels
+     * in the background.
+     *
+     * @param channels  The channels.
+     */
+    private void prefetch(List<Channel> channels) {
+        new PrefetchService(model, 4, new RateLimiter(10, 10), new PrefetchService.Listener() {
+            @Override
+            public void progress(int done, int total) {
+
+            }
+
+            @Override
+            public void finished(int total, int failed, long millis) {
+                System.out.println("Prefetched " + (total - failed) + " of " + total
+                        + " channels in " + millis + " ms");
+            }
+        }).start(new ArrayList<>(channels));
+    }
+
+    /**
+     * Will stop answering requests.
+     */
+    public void stop() {
+        refresher.shutdownNow();
+        server.stop(0);
+        handlers.shutdown();
+    }
+
+    /**
+     * Will answer /channels and /channels/{id}/schedule.
+     * Only IDs of known channels are looked up, anything
+     * else is not found.
+     *
+     * @param exchange  The request.
+     * @throws IOException  The answer could not be sent.
+     */
+    private void handleChannels(HttpExchange exchange) throws IOException {
+        String[] parts = exchange.getRequestURI().getPath().split("/");
+        if(!exchange.getRequestMethod().equals("GET")) {
+            sendError(exchange, 405, "Only GET is supported");
+        } else if(parts.length == 2) {
+            sendChannels(exchange);
+        } else if(parts.length == 4 && !isKnownChannel(parts[2])) {
+            sendError(exchange, 404, "Unknown channel");
+        } else if(parts.length == 4 && parts[3].equals("schedule")) {
+            sendSchedule(exchange, parts[2]);
+        } else if(parts.length == 4 && parts[3].equals("history")) {
+            sendHistory(exchange, parts[2]);
+        } else {
+            sendError(exchange, 404, "Not found");
+        }
+    }
+
+    /**
+     * Will tell if an ID is the ID of one of the channels.
+     * Channel IDs are numbers, so anything else is turned
+     * away without looking through the channels.
+     *
+     * @param channelId     The ID from the request.
+     * @return              True if there is such a channel.
+     */
+    private boolean isKnownChannel(String channelId) {
+        if(!CHANNEL_ID.matcher(channelId).matches()) {
+            return false;
+        }
+        for(Channel channel : model.getAllChannels()) {
+            if(channel.getId().equals(channelId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Will answer with every channel.
+     *
+     * @param exchange  The request.
+     * @throws IOException  The answer could not be sent.
+     */
+    private void sendChannels(HttpExchange exchange) throws IOException {
+        try (Writer out = startJson(exchange, 200)) {
+            out.write('[');
+            boolean first = true;
+            for(Channel channel : model.getAllChannels()) {
+                if(!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write("{\"id\":");
+                writeString(out, channel.getId());
+                out.write(",\"name\":");
+                writeString(out, channel.getName());
+                out.write('}');
+            }
+            out.write(']');
+        }
+    }
+
+    /**
+     * Will answer with the episodes of a channel. When the
+     * shared cache has the whole timespan, the answer is made
+     * on the handler thread. Otherwise the handler waits for
+     * the schedules to be fetched.
+     *
+     * @param exchange      The request.
+     * @param channelId     The channel ID.
+     * @throws IOException  The answer could not be sent.
+     */
+    private void sendSchedule(HttpExchange exchange, String channelId) throws IOException {
+        ArrayList<Episode> episodes = model.findCachedEpisodesFromID(channelId);
+        if(episodes == null) {
+            Metrics.counter("server.cacheMisses").increment();
+            try {
+                episodes = model.findAllEpisodesFromID(channelId);
+            } catch (Exception e) {
+                sendError(exchange, 502, "Episodes could not be found.");
+                return;
+            }
+        }
+
+        try (Writer out = startJson(exchange, 200)) {
+            out.write('[');
+            for(int i = 0; i < episodes.size(); i++) {
+                if(i > 0) {
+                    out.write(',');
+                }
+                writeEpisode(out, episodes.get(i));
+            }
+            out.write(']');
+        }
+    }
+
+    /**
+     * Will answer with the archived episodes of a channel
+     * within the range given by the query parameters from
+     * and to. Without them, the last day is used.
+     *
+     * @param exchange      The request.
+     * @param channelId     The channel ID.
+     * @throws IOException  The answer could not be sent.
+     */
+    private void sendHistory(HttpExchange exchange, String channelId) throws IOException {
+        ScheduleArchive archive = model.getArchive();
+        if(archive == null) {
+            sendError(exchange, 404, "The archive is turned off");
+            return;
+        }
+
+        long to = System.currentTimeMillis();
+        long from = to - TimeUnit.DAYS.toMillis(1);
+        String query = exchange.getRequestURI().getQuery();
+        List<Episode> episodes;
+        try {
+            if(query != null) {
+                for(String parameter : query.split("&")) {
+                    if(parameter.startsWith("from=")) {
+                        from = Instant.parse(parameter.substring(5)).toEpochMilli();
+                    } else if(parameter.startsWith("to=")) {
+                        to = Instant.parse(parameter.substring(3)).toEpochMilli();
+                    }
+                }
+            }
+            episodes = archive.query(channelId, from, to);
+        } catch (DateTimeParseException e) {
+            sendError(exchange, 400, "from and to must be ISO instants");
+            return;
+        } catch (IOException e) {
+            sendError(exchange, 500, "The archive could not be read.");
+            return;
+        }
+
+        try (Writer out = startJson(exchange, 200)) {
+            out.write('[');
+            for(int i = 0; i < episodes.size(); i++) {
+                if(i > 0) {
+                    out.write(',');
+                }
+                writeEpisode(out, episodes.get(i));
+            }
+            out.write(']');
+        }
+    }
+
+    /**
+     * Will answer /nowplaying with the episode that is
+     * on air on every channel whose schedule is loaded.
+     *
+     * @param exchange  The request.
+     * @throws IOException  The answer could not be sent.
+     */
+    private void handleNowPlaying(HttpExchange exchange) throws IOException {
+        Map<String, Episode> onAir = model.getScheduleIndex().onAir(System.currentTimeMillis());
+        try (Writer out = startJson(exchange, 200)) {
+            out.write('{');
+            boolean first = true;
+            for(Map.Entry<String, Episode> entry : onAir.entrySet()) {
+                if(!first) {
+                    out.write(',');
+                }
+                first = false;
+                writeString(out, entry.getKey());
+                out.write(':');
+                writeEpisode(out, entry.getValue());
+            }
+            out.write('}');
+        }
+    }
+
+    /**
+     * Will return a writer for the body of a JSON answer.
+     * The body is kept in memory and sent with its length
+     * in one write when the writer is closed, since a
+     * chunked answer is sent in several small packets that
+     * each wait for the client to acknowledge the last.
+     *
+     * @param exchange  The request.
+     * @param status    The HTTP status.
+     * @return          A writer for the body. Closing it sends the answer.
+     */
+    private static Writer startJson(HttpExchange exchange, int status) {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        return new OutputStreamWriter(new JsonBody(exchange, status), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Will answer with an error.
+     *
+     * @param exchange  The request.
+     * @param status    The HTTP status.
+     * @param message   What went wrong.
+     * @throws IOException  The answer could not be sent.
+     */
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        try (Writer out = startJson(exchange, status)) {
+            out.write("{\"error\":");
+            writeString(out, message);
+            out.write('}');
+        }
+    }
+
+    /**
+     * Will write an episode as a JSON object.
+     *
+     * @param out       Where to write it.
+     * @param episode   The episode.
+     * @throws IOException  It could not be written.
+     */
+    private static void writeEpisode(Writer out, Episode episode) throws IOException {
+        out.write("{\"title\":");
+        writeString(out, episode.getTitle());
+        out.write(",\"description\":");
+        writeString(out, episode.getDescription());
+        out.write(",\"start\":");
+        writeString(out, Instant.ofEpochMilli(episode.getStartMillis()).toString());
+        out.write(",\"end\":");
+        writeString(out, Instant.ofEpochMilli(episode.getEndMillis()).toString());
+        out.write(",\"image\":");
+        writeString(out, episode.getImage());
+        out.write('}');
+    }
+
+    /**
+     * Will write a JSON string, or null.
+     *
+     * @param out       Where to write it.
+     * @param value     The string.
+     * @throws IOException  It could not be written.
+     */
+    private static void writeString(Writer out, String value) throws IOException {
+        if(value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for(int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch(c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if(c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * -------------------- JsonBody class --------------------
+     */
+    private static final class JsonBody extends ByteArrayOutputStream {
+        private final HttpExchange exchange;
+        private final int status;
+
+        /**
+         * Constructor.
+         *
+         * @param exchange  The request.
+         * @param status    The HTTP status.
+         */
+        private JsonBody(HttpExchange exchange, int status) {
+            this.exchange = exchange;
+            this.status = status;
+        }
+
+        /**
+         * Will send the headers and the whole body.
+         *
+         * @throws IOException  The answer could not be sent.
+         */
+        @Override
+        public void close() throws IOException {
+            exchange.sendResponseHeaders(status, count == 0 ? -1 : count);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(buf, 0, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,420 @@
+/**
+ * A full-text index over the titles and descriptions
+ * of every loaded episode on every channel in the
+ * RadioInfo program. Every word points to the episodes
+ * it is in, so a search only looks at the episodes that
+ * match instead of reading every schedule.
+ *
+ * Words are split on everything that is not a letter or
+ * a digit and folded to lower case. Å, ä and ö are kept
+ * since they are letters of their own in Swedish, while
+ * other accents are removed, so "cafe" finds "Café".
+ * Every word in a search matches the beginning of a word,
+ * so results show up while the user is still typing.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * -------------------- SearchIndex class --------------------
+ */
+public class SearchIndex {
+    private static final int TITLE_WEIGHT = 3;
+    private static final int DESCRIPTION_WEIGHT = 1;
+    private static final double EXACT_BONUS = 1.5;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Map<Document, Integer>> postings = new TreeMap<>();
+    private final Map<String, Map<LocalDate, Map<String, Document>>> schedules = new HashMap<>();
+    private int documentCount;
+
+    /**
+     * Will update the index with a newly fetched schedule for
+     * a channel on a date. Only episodes that are new, gone or
+     * changed since the last schedule for that date touch the
+     * index, everything else is left as it is.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date of the schedule.
+     * @param episodes      The episodes on that date.
+     */
+    public void update(String channelId, LocalDate date, List<Episode> episodes) {
+        Map<String, Episode> fresh = new HashMap<>();
+        for(Episode episode : episodes) {
+            fresh.put(key(episode), episode);
+        }
+
+        lock.writeLock().lock();
+        try {
+            Map<String, Document> old = schedules
+                    .computeIfAbsent(channelId, id -> new HashMap<>())
+                    .computeIfAbsent(date, day -> new HashMap<>());
+
+            Iterator<Map.Entry<String, Document>> iterator = old.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<String, Document> entry = iterator.next();
+                Episode replacement = fresh.get(entry.getKey());
+                if(replacement == null || !sameText(replacement, entry.getValue().episode)) {
+                    removeDocument(entry.getValue());
+                    iterator.remove();
+                }
+            }
+            for(Map.Entry<String, Episode> entry : fresh.entrySet()) {
+                if(!old.containsKey(entry.getKey())) {
+                    old.put(entry.getKey(), addDocument(channelId, entry.getValue()));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Will forget the schedules of a channel on
+     * every date before a certain date.
+     *
+     * @param channelId     The channel ID.
+     * @param oldest        The oldest date to keep.
+     */
+    public void removeBefore(String channelId, LocalDate oldest) {
+        lock.writeLock().lock();
+        try {
+            Map<LocalDate, Map<String, Document>> dates = schedules.get(channelId);
+            if(dates == null) {
+                return;
+            }
+            Iterator<Map.Entry<LocalDate, Map<String, Document>>> iterator = dates.entrySet().iterator();
+            while(iterator.hasNext()) {
+                Map.Entry<LocalDate, Map<String, Document>> entry = iterator.next();
+                if(entry.getKey().isBefore(oldest)) {
+                    entry.getValue().values().forEach(this::removeDocument);
+                    iterator.remove();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Will find the episodes that match a search. Every
+     * word of the search must match the beginning of a word
+     * in the title or description. Matches in the title
+     * count more than in the description, whole words count
+     * more than beginnings, and rare words count more than
+     * common ones. Equal matches are ordered by how close to
+     * now they are on air.
+     *
+     * @param query     What the user typed.
+     * @param limit     How many results to return at most.
+     * @return          The best matches, best first.
+     */
+    public List<Hit> search(String query, int limit) {
+        long start = System.nanoTime();
+        List<String> words = tokenize(query);
+        if(words.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Map<Document, Double> scores = null;
+        lock.readLock().lock();
+        try {
+            for(String word : words) {
+                Map<Document, Double> matches = match(word);
+                if(scores == null) {
+                    scores = matches;
+                } else {
+                    Map<Document, Double> both = new HashMap<>();
+                    Map<Document, Double> smaller = scores.size() <= matches.size() ? scores : matches;
+                    Map<Document, Double> larger = smaller == scores ? matches : scores;
+                    for(Map.Entry<Document, Double> entry : smaller.entrySet()) {
+                        Double other = larger.get(entry.getKey());
+                        if(other != null) {
+                            both.put(entry.getKey(), entry.getValue() + other);
+                        }
+                    }
+                    scores = both;
+                }
+                if(scores.isEmpty()) {
+                    break;
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long now = System.currentTimeMillis();
+        List<Hit> hits = new ArrayList<>(scores.size());
+        for(Map.Entry<Document, Double> entry : scores.entrySet()) {
+            hits.add(new Hit(entry.getKey().channelId, entry.getKey().episode, entry.getValue()));
+        }
+        hits.sort((a, b) -> {
+            int byScore = Double.compare(b.score, a.score);
+            if(byScore != 0) {
+                return byScore;
+            }
+            return Long.compare(Math.abs(a.episode.getStartMillis() - now), Math.abs(b.episode.getStartMillis() - now));
+        });
+
+        List<Hit> best = new ArrayList<>(Math.min(limit, hits.size()));
+        Set<String> seen = new HashSet<>();
+        for(Hit hit : hits) {
+            if(best.size() >= limit) {
+                break;
+            }
+            if(seen.add(hit.channelId + "/" + key(hit.episode))) {
+                best.add(hit);
+            }
+        }
+        Metrics.time("search.query", start);
+        return best;
+    }
+
+    /**
+     * Returns how many episodes are in the index.
+     *
+     * @return  The number of episodes.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Will find every episode with a word that starts
+     * with a search word, and score it by its best word.
+     *
+     * @param word  The search word.
+     * @return      The score of every matching episode.
+     */
+    private Map<Document, Double> match(String word) {
+        Map<Document, Double> scores = new HashMap<>();
+        NavigableMap<String, Map<Document, Integer>> terms =
+                postings.subMap(word, true, word + Character.MAX_VALUE, false);
+        for(Map.Entry<String, Map<Document, Integer>> term : terms.entrySet()) {
+            Map<Document, Integer> documents = term.getValue();
+            double rarity = Math.log(1.0 + (double) documentCount / documents.size());
+            double exact = term.getKey().length() == word.length() ? EXACT_BONUS : 1.0;
+            for(Map.Entry<Document, Integer> posting : documents.entrySet()) {
+                double score = posting.getValue() * rarity * exact;
+                scores.merge(posting.getKey(), score, Math::max);
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Will add an episode to the index.
+     *
+     * @param channelId     The channel it is on.
+     * @param episode       The episode.
+     * @return              The document for the episode.
+     */
+    private Document addDocument(String channelId, Episode episode) {
+        Map<String, Integer> weights = new HashMap<>();
+        for(String word : tokenize(episode.getTitle())) {
+            weights.merge(word, TITLE_WEIGHT, Integer::sum);
+        }
+        for(String word : tokenize(episode.getDescription())) {
+            weights.merge(word, DESCRIPTION_WEIGHT, Integer::sum);
+        }
+
+        Document document = new Document(channelId, episode, weights.keySet());
+        for(Map.Entry<String, Integer> weight : weights.entrySet()) {
+            postings.computeIfAbsent(weight.getKey(), word -> new HashMap<>()).put(document, weight.getValue());
+        }
+        documentCount++;
+        return document;
+    }
+
+    /**
+     * Will remove an episode from the index.
+     *
+     * @param document  The document for the episode.
+     */
+    private void removeDocument(Document document) {
+        for(String word : document.words) {
+            Map<Document, Integer> documents = postings.get(word);
+            if(documents != null) {
+                documents.remove(document);
+                if(documents.isEmpty()) {
+                    postings.remove(word);
+                }
+            }
+        }
+        documentCount--;
+    }
+
+    /**
+     * Will split a text into folded words.
+     *
+     * @param text  The text, may be null.
+     * @return      The words, in order.
+     */
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        if(text == null) {
+            return words;
+        }
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i < text.length(); i++) {
+            char c = fold(text.charAt(i));
+            if(c != 0) {
+                word.append(c);
+            } else if(word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        if(word.length() > 0) {
+            words.add(word.toString());
+        }
+        return words;
+    }
+
+    /**
+     * Will fold a character for the index. Letters are made
+     * lower case, accents are removed except on å, ä and ö,
+     * and the Danish and Norwegian æ and ø become ä and ö.
+     *
+     * @param c     The character.
+     * @return      The folded character, or 0 if it is not part of a word.
+     */
+    static char fold(char c) {
+        if(!Character.isLetterOrDigit(c)) {
+            return 0;
+        }
+        char lower = Character.toLowerCase(c);
+        if(lower < 0x80 || lower == 'å' || lower == 'ä' || lower == 'ö') {
+            return lower;
+        }
+        if(lower == 'æ') {
+            return 'ä';
+        }
+        if(lower == 'ø') {
+            return 'ö';
+        }
+        char base = Normalizer.normalize(String.valueOf(lower), Normalizer.Form.NFD).charAt(0);
+        return Character.isLetterOrDigit(base) ? base : lower;
+    }
+
+    /**
+     * Will create the key that tells episodes apart
+     * within a schedule.
+     *
+     * @param episode   The episode.
+     * @return          The key.
+     */
+    private static String key(Episode episode) {
+        return episode.getStartMillis() + "/" + episode.getTitle();
+    }
+
+    /**
+     * Will check if two episodes have the same
+     * title and description.
+     *
+     * @param a     One episode.
+     * @param b     The other episode.
+     * @return      True if the texts are the same.
+     */
+    private static boolean sameText(Episode a, Episode b) {
+        return a == b || (Objects.equals(a.getTitle(), b.getTitle())
+                && Objects.equals(a.getDescription(), b.getDescription()));
+    }
+
+    /**
+     * -------------------- Document class --------------------
+     */
+    private static final class Document {
+        private final String channelId;
+        private final Episode episode;
+        private final Collection<String> words;
+
+        /**
+         * Constructor.
+         *
+         * @param channelId     The channel the episode is on.
+         * @param episode       The episode.
+         * @param words         Every word the episode is indexed under.
+         */
+        private Document(String channelId, Episode episode, Collection<String> words) {
+            this.channelId = channelId;
+            this.episode = episode;
+            this.words = words;
+        }
+    }
+
+    /**
+     * -------------------- Hit class --------------------
+     */
+    public static final class Hit {
+        private final String channelId;
+        private final Episode episode;
+        private final double score;
+
+        /**
+         * Constructor.
+         *
+         * @param channelId     The channel the episode is on.
+         * @param episode       The episode.
+         * @param score         How well it matched.
+         */
+        private Hit(String channelId, Episode episode, double score) {
+            this.channelId = channelId;
+            this.episode = episode;
+            this.score = score;
+        }
+
+        /**
+         * Returns the channel ID.
+         *
+         * @return  The channel ID.
+         */
+        public String getChannelId() {
+            return channelId;
+        }
+
+        /**
+         * Returns the episode.
+         *
+         * @return  The episode.
+         */
+        public Episode getEpisode() {
+            return episode;
+        }
+
+        /**
+         * Returns how well the episode matched.
+         *
+         * @return  The score, higher is better.
+         */
+        public double getScore() {
+            return score;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Makes sure that only one call per key is running at
+ * a time in the RadioInfo program. If a call for a key
+ * is already running, later callers wait for it and get
+ * the same result instead of starting their own. No lock
+ * is held while the call runs.
+ *
+ * The call runs on a thread of its own, so a caller that
+ * is interrupted only stops waiting, and the others still
+ * get the result. The call is only aborted when every
+ * caller waiting for it has given up.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * -------------------- SingleFlight class --------------------
+ */
+public class SingleFlight<K, V> {
+    private final ExecutorService executor;
+    private final Map<K, Flight<V>> flights = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param executor  Runs the calls.
+     */
+    public SingleFlight(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Will run a call for a key, or wait for the call
+     * that is already running for the same key.
+     *
+     * @param key   What the call is for.
+     * @param call  The call.
+     * @param abort Stops the call if every caller gives up, may be null.
+     * @return      The result of the call.
+     * @throws InterruptedException     This caller was interrupted while waiting.
+     * @throws Exception                What the call threw.
+     */
+    public V execute(K key, Call<V> call, Runnable abort) throws Exception {
+        Flight<V> flight;
+        while(true) {
+            Flight<V> created = new Flight<>(abort);
+            flight = flights.putIfAbsent(key, created);
+            if(flight == null) {
+                executed.incrementAndGet();
+                created.join();
+                Flight<V> started = created;
+                created.start(executor.submit(() -> {
+                    try {
+                        started.result.complete(call.call());
+                    } catch (Exception | Error e) {
+                        started.result.completeExceptionally(e);
+                    } finally {
+                        flights.remove(key, started);
+                    }
+                }));
+                flight = created;
+                break;
+            }
+            if(flight.join()) {
+                coalesced.incrementAndGet();
+                break;
+            }
+            flights.remove(key, flight);
+        }
+
+        try {
+            return flight.result.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        } catch (InterruptedException e) {
+            if(flight.leave()) {
+                abandoned.incrementAndGet();
+                flights.remove(key, flight);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns how many calls were actually run.
+     *
+     * @return  The number of calls.
+     */
+    public long getExecuted() {
+        return executed.get();
+    }
+
+    /**
+     * Returns how many callers got the result of a
+     * call that was already running.
+     *
+     * @return  The number of coalesced callers.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns how many calls were aborted because
+     * every caller gave up on them.
+     *
+     * @return  The number of aborted calls.
+     */
+    public long getAbandoned() {
+        return abandoned.get();
+    }
+
+    /**
+     * -------------------- Call interface --------------------
+     */
+    public interface Call<V> {
+        V call() throws Exception;
+    }
+
+    /**
+     * -------------------- Flight class --------------------
+     */
+    private static final class Flight<V> {
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+        private final Runnable abort;
+        private Future<?> task;
+        private int waiters;
+        private boolean aborted;
+
+        /**
+         * Constructor.
+         *
+         * @param abort     Stops the call, may be null.
+         */
+        private Flight(Runnable abort) {
+            this.abort = abort;
+        }
+
+        /**
+         * Will add a caller that waits for the call.
+         *
+         * @return  False if the call was already aborted.
+         */
+        private synchronized boolean join() {
+            if(aborted) {
+                return false;
+            }
+            waiters++;
+            return true;
+        }
+
+        /**
+         * Will remember the running call, so it can be
+         * aborted. If every caller gave up before it was
+         * started, it is aborted right away.
+         *
+         * @param task  The running call.
+         */
+        private synchronized void start(Future<?> task) {
+            this.task = task;
+            if(aborted) {
+                task.cancel(true);
+            }
+        }
+
+        /**
+         * Will remove a caller that gave up. The last one
+         * to give up aborts the call, unless it is done.
+         *
+         * @return  True if the call was aborted.
+         */
+        private synchronized boolean leave() {
+            waiters--;
+            if(waiters > 0 || result.isDone()) {
+                return false;
+            }
+            aborted = true;
+            if(task != null) {
+                task.cancel(true);
+            }
+            if(abort != null) {
+                abort.run();
+            }
+            result.cancel(false);
+            return true;
+        }
+    }
+}
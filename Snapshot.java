@@ -0,0 +1,262 @@
+/**
+ * A snapshot of what the RadioInfo program knew the
+ * last time it ran: the channels, the recent schedules
+ * and which channel was shown. It is saved to a small
+ * compressed file so the program can show something
+ * right away at startup, before Sveriges radio answers.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * -------------------- Snapshot class --------------------
+ */
+public class Snapshot {
+    private static final int MAGIC = 0x52494E46;
+    private static final int VERSION = 3;
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    private final List<Channel> channels;
+    private final List<ScheduleCache.Entry> schedules;
+    private final String lastChannelId;
+
+    /**
+     * Constructor.
+     *
+     * @param channels          All channels.
+     * @param schedules         The schedules to keep.
+     * @param lastChannelId     The channel that was shown, or null.
+     */
+    public Snapshot(List<Channel> channels, List<ScheduleCache.Entry> schedules, String lastChannelId) {
+        this.channels = channels;
+        this.schedules = schedules;
+        this.lastChannelId = lastChannelId;
+    }
+
+    /**
+     * Returns where the snapshot is saved. It can be
+     * changed with the property radioinfo.snapshot.
+     *
+     * @return  The snapshot file.
+     */
+    public static Path defaultFile() {
+        String file = System.getProperty("radioinfo.snapshot");
+        if(file != null) {
+            return Path.of(file);
+        }
+        return Path.of(System.getProperty("user.home"), ".radioinfo", "snapshot.bin");
+    }
+
+    /**
+     * Returns all channels in the snapshot.
+     *
+     * @return  The channels.
+     */
+    public List<Channel> getChannels() {
+        return channels;
+    }
+
+    /**
+     * Returns all schedules in the snapshot.
+     *
+     * @return  The schedules.
+     */
+    public List<ScheduleCache.Entry> getSchedules() {
+        return schedules;
+    }
+
+    /**
+     * Returns the channel that was shown when
+     * the snapshot was saved.
+     *
+     * @return  The channel ID, or null.
+     */
+    public String getLastChannelId() {
+        return lastChannelId;
+    }
+
+    /**
+     * Will save the snapshot. It is first written to a
+     * temporary file that then replaces the old one, so a
+     * crash while saving never leaves a broken snapshot.
+     *
+     * @param file  Where to save it.
+     * @throws IOException  The snapshot could not be saved.
+     */
+    public void save(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, "snapshot", ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeString(out, lastChannelId == null ? "" : lastChannelId);
+
+                out.writeInt(channels.size());
+                for(Channel channel : channels) {
+                    writeString(out, channel.getId());
+                    writeString(out, channel.getName());
+                }
+
+                out.writeInt(schedules.size());
+                for(ScheduleCache.Entry schedule : schedules) {
+                    writeString(out, schedule.getChannelId());
+                    writeString(out, schedule.getDate().toString());
+                    out.writeLong(schedule.getFetchedAt());
+                    out.writeInt(schedule.getEpisodes().size());
+                    for(Episode episode : schedule.getEpisodes()) {
+                        writeEpisode(out, episode);
+                    }
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Will read a saved snapshot.
+     *
+     * @param file  Where it is saved.
+     * @return      The snapshot, or null if there is none or it can not be read.
+     */
+    public static Snapshot load(Path file) {
+        if(!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            String lastChannelId = readString(in);
+
+            int channelCount = in.readInt();
+            List<Channel> channels = new ArrayList<>(channelCount);
+            for(int i = 0; i < channelCount; i++) {
+                String id = readString(in);
+                String name = readString(in);
+                channels.add(new Channel(name, id));
+            }
+
+            int scheduleCount = in.readInt();
+            List<ScheduleCache.Entry> schedules = new ArrayList<>(scheduleCount);
+            for(int i = 0; i < scheduleCount; i++) {
+                String channelId = readString(in);
+                LocalDate date = LocalDate.parse(readString(in));
+                long fetchedAt = in.readLong();
+                int episodeCount = in.readInt();
+                ArrayList<Episode> episodes = new ArrayList<>(episodeCount);
+                for(int j = 0; j < episodeCount; j++) {
+                    episodes.add(readEpisode(in));
+                }
+                schedules.add(new ScheduleCache.Entry(channelId, date, episodes, fetchedAt));
+            }
+
+            return new Snapshot(channels, schedules, lastChannelId.isEmpty() ? null : lastChannelId);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Will write one episode.
+     *
+     * @param out       Where to write it.
+     * @param episode   The episode.
+     * @throws IOException  The episode could not be written.
+     */
+    private static void writeEpisode(DataOutputStream out, Episode episode) throws IOException {
+        writeString(out, orEmpty(episode.getTitle()));
+        writeString(out, orEmpty(episode.getDescription()));
+        out.writeBoolean(episode.getImage() != null);
+        if(episode.getImage() != null) {
+            writeString(out, episode.getImage());
+        }
+        out.writeLong(episode.getStartMillis());
+        out.writeLong(episode.getEndMillis());
+    }
+
+    /**
+     * Will read one episode.
+     *
+     * @param in    Where to read it from.
+     * @return      The episode.
+     * @throws IOException  The episode could not be read.
+     */
+    private static Episode readEpisode(DataInputStream in) throws IOException {
+        String title = readString(in);
+        String description = readString(in);
+        String image = in.readBoolean() ? readString(in) : null;
+        long startMillis = in.readLong();
+        long endMillis = in.readLong();
+        return new Episode(description, title, startMillis, endMillis, image);
+    }
+
+    /**
+     * Will write a string as its length followed by its
+     * UTF-8 bytes. Unlike writeUTF() it has no 64 kB limit,
+     * so a very long description can not break the save.
+     *
+     * @param out   Where to write it.
+     * @param text  The string.
+     * @throws IOException  The string could not be written.
+     */
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Will read a string written by writeString().
+     *
+     * @param in    Where to read it from.
+     * @return      The string.
+     * @throws IOException  The string could not be read, or its length is broken.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if(length < 0 || length > MAX_STRING_BYTES) {
+            throw new IOException("Broken string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Will turn null into an empty string.
+     *
+     * @param text  The text.
+     * @return      The text, or "" if it was null.
+     */
+    private static String orEmpty(String text) {
+        return text == null ? "" : text;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * This class reads the XML answers from Sveriges radio
+ * for the RadioInfo program. It uses a StAX pull parser,
+ * so every answer is read in a single pass without building
+ * a document in memory first.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * -------------------- StreamingParser class --------------------
+ */
+public final class StreamingParser {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    /**
+     * Not used, the class only has static methods.
+     */
+    private StreamingParser() {
+
+    }
+
+    /**
+     * Will create the factory that is shared by every
+     * parse. DTDs and external entities are turned off
+     * since the answers never use them.
+     *
+     * @return  The factory.
+     */
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+
+    /**
+     * Will read every channel element that is directly
+     * inside the channels element.
+     *
+     * @param in    The answer from the channels request.
+     * @return      All channels in the answer.
+     * @throws XMLStreamException   The answer could not be read.
+     */
+    public static ArrayList<Channel> parseChannels(InputStream in) throws XMLStreamException {
+        ArrayList<Channel> channels = new ArrayList<>();
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            int depth = 0;
+            int channelsDepth = -1;
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if(channelsDepth < 0 && name.equals("channels")) {
+                        channelsDepth = depth;
+                    } else if(depth == channelsDepth + 1 && name.equals("channel")) {
+                        String id = reader.getAttributeValue(null, "id");
+                        String channelName = reader.getAttributeValue(null, "name");
+                        channels.add(new Channel(channelName, id));
+                    }
+                } else if(event == XMLStreamConstants.END_ELEMENT) {
+                    if(depth == channelsDepth) {
+                        channelsDepth = -1;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return channels;
+    }
+
+    /**
+     * Will read every scheduledepisode element and turn it
+     * into an episode. Only the direct children of the
+     * element are looked at, so the nested program and
+     * channel elements are skipped.
+     *
+     * @param in    The answer from the scheduledepisodes request.
+     * @return      All episodes in the answer.
+     * @throws XMLStreamException   The answer could not be read.
+     */
+    public static ArrayList<Episode> parseEpisodes(InputStream in) throws XMLStreamException {
+        ArrayList<Episode> episodes = new ArrayList<>();
+        parseEpisodes(in, episodes::add);
+        return episodes;
+    }
+
+    /**
+     * Will read every scheduledepisode element and hand each
+     * episode over as soon as it is read, while the rest of
+     * the answer is still being downloaded.
+     *
+     * @param in        The answer from the scheduledepisodes request.
+     * @param episodes  Gets every episode, in the order of the answer.
+     * @throws XMLStreamException   The answer could not be read.
+     */
+    public static void parseEpisodes(InputStream in, Consumer<Episode> episodes) throws XMLStreamException {
+        parseEpisodesUntil(in, episode -> {
+            episodes.accept(episode);
+            return true;
+        });
+    }
+
+    /**
+     * Will read scheduledepisode elements like parseEpisodes(),
+     * but stop reading as soon as the callback says that it
+     * does not want any more episodes.
+     *
+     * @param in        The answer from the scheduledepisodes request.
+     * @param episodes  Gets every episode, and returns false to stop.
+     * @throws XMLStreamException   The answer could not be read.
+     */
+    public static void parseEpisodesUntil(InputStream in, Predicate<Episode> episodes) throws XMLStreamException {
+        XMLStreamReader reader = FACTORY.createXMLStreamReader(in);
+        try {
+            int depth = 0;
+            int episodeDepth = -1;
+            String title = null;
+            String description = null;
+            String startTime = null;
+            String endTime = null;
+            String imageURL = null;
+
+            while(reader.hasNext()) {
+                int event = reader.next();
+                if(event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if(episodeDepth < 0 && name.equals("scheduledepisode")) {
+                        episodeDepth = depth;
+                        title = null;
+                        description = "";
+                        startTime = null;
+                        endTime = null;
+                        imageURL = null;
+                    } else if(depth == episodeDepth + 1) {
+                        switch(name) {
+                            case "title":
+                                title = reader.getElementText();
+                                depth--;
+                                break;
+                            case "description":
+                                description = reader.getElementText();
+                                depth--;
+                                break;
+                            case "starttimeutc":
+                                startTime = reader.getElementText();
+                                depth--;
+                                break;
+                            case "endtimeutc":
+                                endTime = reader.getElementText();
+                                depth--;
+                                break;
+                            case "imageurl":
+                                imageURL = reader.getElementText();
+                                depth--;
+                                break;
+                            default:
+                                break;
+                        }
+                    }
+                } else if(event == XMLStreamConstants.END_ELEMENT) {
+                    if(depth == episodeDepth) {
+                        Episode episode = imageURL != null
+                                ? new Episode(description, title, startTime, endTime, imageURL)
+                                : new Episode(description, title, startTime, endTime);
+                        if(!episodes.test(episode)) {
+                            return;
+                        }
+                        episodeDepth = -1;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
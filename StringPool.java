@@ -0,0 +1,83 @@
+/**
+ * A bounded pool of strings for the RadioInfo program.
+ * Schedules repeat the same titles, descriptions and
+ * image URLs many times, like the news every hour, so
+ * the parsed episodes share one copy of each text
+ * instead of keeping one copy per episode.
+ *
+ * Unlike String.intern(), the pool has a size limit.
+ * When it is full it is emptied and filled again, so
+ * texts that are no longer used can be collected.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * -------------------- StringPool class --------------------
+ */
+public class StringPool {
+    private final int maxEntries;
+    private final Map<String, String> strings = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param maxEntries    How many strings the pool may hold,
+     *                      0 turns the pool off.
+     */
+    public StringPool(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Will return the pooled copy of a string, and
+     * add the string if there is none.
+     *
+     * @param text  The string, may be null.
+     * @return      The pooled string, or the string itself.
+     */
+    public String intern(String text) {
+        if(text == null || maxEntries <= 0) {
+            return text;
+        }
+        String pooled = strings.get(text);
+        if(pooled != null) {
+            hits.increment();
+            return pooled;
+        }
+        if(strings.size() >= maxEntries) {
+            strings.clear();
+        }
+        pooled = strings.putIfAbsent(text, text);
+        return pooled != null ? pooled : text;
+    }
+
+    /**
+     * Returns how many strings the pool holds.
+     *
+     * @return  The number of strings.
+     */
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * Returns how many times a pooled copy was
+     * returned instead of a new string.
+     *
+     * @return  The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Creates made up answers in the same XML format as
+ * Sveriges radio, for the RadioInfo program. They are
+ * used to measure and load test the program without
+ * a network, at any size.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * -------------------- SyntheticData class --------------------
+ */
+public final class SyntheticData {
+    private static final String[] TITLES = {"Ekot", "Morgonpasset", "Vetenskapsradion", "Sportextra",
+            "Kulturnytt", "P3 Dokumentär", "Sommar i P1", "Musikguiden", "Radiosporten", "Lunchekot"};
+
+    /**
+     * Not used, the class only has static methods.
+     */
+    private SyntheticData() {
+
+    }
+
+    /**
+     * Will create a channels answer.
+     *
+     * @param count     How many channels.
+     * @return          The answer as UTF-8 bytes.
+     */
+    public static byte[] channels(int count) {
+        StringBuilder xml = new StringBuilder(count * 64);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?><sr><copyright>Synthetic</copyright><channels>");
+        for(int i = 0; i < count; i++) {
+            xml.append("<channel id=\"").append(channelId(i)).append("\" name=\"Kanal ").append(i)
+                    .append("\"><image>https://static-cdn.sr.se/images/").append(channelId(i))
+                    .append(".jpg</image><channeltype>Rikskanal</channeltype></channel>");
+        }
+        xml.append("</channels></sr>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Will create a scheduledepisodes answer for one channel
+     * and date. The episodes are evenly spread over the day.
+     *
+     * @param channelId     The channel ID.
+     * @param date          The date.
+     * @param episodes      How many episodes.
+     * @return              The answer as UTF-8 bytes.
+     */
+    public static byte[] schedule(String channelId, LocalDate date, int episodes) {
+        long dayStart = date.atStartOfDay(ZoneOffset.UTC).toEpochSecond();
+        long length = 86400L / Math.max(1, episodes);
+        StringBuilder xml = new StringBuilder(episodes * 512);
+        xml.append("<?xml version=\"1.0\" encoding=\"utf-8\"?><sr><copyright>Synthetic</copyright><schedule>");
+        for(int i = 0; i < episodes; i++) {
+            String title = TITLES[i % TITLES.length];
+            xml.append("<scheduledepisode><episodeid>").append(i).append("</episodeid>")
+                    .append("<title>").append(title).append("</title>")
+                    .append("<description>").append(title).append(" med nyheter, reportage och musik. Avsnitt ")
+                    .append(i % 7).append(".</description>")
+                    .append("<starttimeutc>").append(utc(dayStart + i * length)).append("</starttimeutc>")
+                    .append("<endtimeutc>").append(utc(dayStart + (i + 1) * length)).append("</endtimeutc>")
+                    .append("<program id=\"").append(i % TITLES.length).append("\" name=\"").append(title).append("\" />")
+                    .append("<channel id=\"").append(channelId).append("\" name=\"Kanal\" />")
+                    .append("<imageurl>https://static-cdn.sr.se/images/").append(i % TITLES.length)
+                    .append(".jpg</imageurl></scheduledepisode>");
+        }
+        xml.append("</schedule></sr>");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the ID of the n:th synthetic channel.
+     *
+     * @param index     The channel number.
+     * @return          The channel ID.
+     */
+    public static String channelId(int index) {
+        return String.valueOf(100 + index);
+    }
+
+    /**
+     * Will format a time like Sveriges radio does.
+     *
+     * @param epochSecond   The time in epoch seconds.
+     * @return              The time, like "2025-01-26T05:00:00Z".
+     */
+    private static String utc(long epochSecond) {
+        return DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochSecond(epochSecond));
+    }
+}
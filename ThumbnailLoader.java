@@ -0,0 +1,274 @@
+/**
+ * This class downloads and scales the episode images
+ * for the RadioInfo program in the background. Finished
+ * thumbnails are kept in memory, and optionally on disk,
+ * so the same image is only downloaded once.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * -------------------- ThumbnailLoader class --------------------
+ */
+public class ThumbnailLoader {
+    public static final int SIZE = 100;
+
+    private static final int DOWNLOAD_THREADS = 4;
+    private static final int TIMEOUT_MILLIS = 10000;
+    private static final long MEMORY_BUDGET_BYTES = 8L * 1024 * 1024;
+    private static final long BYTES_PER_THUMBNAIL = (long) SIZE * SIZE * 4;
+
+    private final ExecutorService downloadExecutor = Executors.newFixedThreadPool(DOWNLOAD_THREADS, runnable -> {
+        Thread thread = new Thread(runnable, "RadioInfo-thumbnail");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, CompletableFuture<ImageIcon>> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, ImageIcon> memoryCache = new LinkedHashMap<>(16, 0.75f, true);
+    private final File diskCache;
+
+    /**
+     * Constructor. The disk cache is only used if the
+     * property radioinfo.thumbnailCache names a directory.
+     */
+    public ThumbnailLoader() {
+        String directory = System.getProperty("radioinfo.thumbnailCache");
+        if(directory != null && (new File(directory).isDirectory() || new File(directory).mkdirs())) {
+            diskCache = new File(directory);
+        } else {
+            diskCache = null;
+        }
+    }
+
+    /**
+     * Will return a thumbnail if it is already in
+     * memory, without starting a download.
+     *
+     * @param url   The image URL.
+     * @return      The thumbnail, or null if it is not in memory.
+     */
+    public ImageIcon getIfCached(String url) {
+        synchronized (memoryCache) {
+            return memoryCache.get(url);
+        }
+    }
+
+    /**
+     * Will load a thumbnail in the background. If the same
+     * URL is already being loaded, the same future is returned
+     * so the image is only downloaded once.
+     *
+     * @param url   The image URL.
+     * @return      A future holding the 100x100 thumbnail.
+     */
+    public CompletableFuture<ImageIcon> load(String url) {
+        ImageIcon cached = getIfCached(url);
+        if(cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        CompletableFuture<ImageIcon> created = new CompletableFuture<>();
+        CompletableFuture<ImageIcon> existing = inFlight.putIfAbsent(url, created);
+        if(existing != null) {
+            return existing;
+        }
+
+        downloadExecutor.execute(() -> {
+            try {
+                ImageIcon icon = new ImageIcon(loadThumbnail(url));
+                remember(url, icon);
+                inFlight.remove(url, created);
+                created.complete(icon);
+            } catch (IOException | RuntimeException e) {
+                inFlight.remove(url, created);
+                created.completeExceptionally(e);
+            }
+        });
+        return created;
+    }
+
+    /**
+     * Will find the thumbnail on disk, or download and
+     * scale the image if it is not there.
+     *
+     * @param url   The image URL.
+     * @return      The scaled image.
+     * @throws IOException  The image could not be loaded.
+     */
+    private BufferedImage loadThumbnail(String url) throws IOException {
+        RadioEvents.ThumbnailEvent event = new RadioEvents.ThumbnailEvent();
+        event.begin();
+        event.url = url;
+        try {
+            File file = diskCache != null ? new File(diskCache, fileName(url)) : null;
+            if(file != null && file.isFile()) {
+                BufferedImage stored = ImageIO.read(file);
+                if(stored != null) {
+                    Metrics.counter("image.diskHits").increment();
+                    event.fromDisk = true;
+                    return stored;
+                }
+            }
+
+            long start = System.nanoTime();
+            URLConnection con = new URL(downloadUrl(url)).openConnection();
+            con.setConnectTimeout(TIMEOUT_MILLIS);
+            con.setReadTimeout(TIMEOUT_MILLIS);
+            byte[] bytes;
+            try (InputStream in = con.getInputStream()) {
+                bytes = in.readAllBytes();
+            }
+            RecordingTransport.recordImage(url, bytes);
+            BufferedImage original = ImageIO.read(new ByteArrayInputStream(bytes));
+            Metrics.time("image.download", start);
+            event.bytes = bytes.length;
+            Metrics.counter("image.bytes").add(event.bytes);
+            if(original == null) {
+                throw new IOException("Not an image: " + url);
+            }
+
+            start = System.nanoTime();
+            BufferedImage thumbnail = scale(original);
+            Metrics.time("image.scale", start);
+            if(file != null) {
+                store(thumbnail, file);
+            }
+            return thumbnail;
+        } finally {
+            event.commit();
+        }
+    }
+
+    /**
+     * Will save a thumbnail in the disk cache. It is first
+     * written to a temporary file that then replaces the
+     * final one, so another thread or a crash never sees a
+     * half written image. A thumbnail that can not be saved
+     * is still shown, it is only downloaded again next time.
+     *
+     * @param thumbnail     The scaled image.
+     * @param file          Where it is kept.
+     */
+    private void store(BufferedImage thumbnail, File file) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(diskCache.toPath(), "thumbnail", ".tmp");
+            ImageIO.write(thumbnail, "png", temporary.toFile());
+            Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Metrics.counter("image.diskErrors").increment();
+        } finally {
+            if(temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException e) {
+                    // Only a leftover temporary file.
+                }
+            }
+        }
+    }
+
+    /**
+     * Will decide where an image is downloaded from. If
+     * the property radioinfo.imageBaseUrl is set, like when
+     * a ReplayServer is used, the image is asked for there.
+     *
+     * @param url   The image URL.
+     * @return      The URL to download from.
+     */
+    private static String downloadUrl(String url) {
+        String imageBaseUrl = System.getProperty("radioinfo.imageBaseUrl");
+        if(imageBaseUrl == null) {
+            return url;
+        }
+        return imageBaseUrl + "/images?url=" + URLEncoder.encode(url, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Will scale an image to the thumbnail size
+     * with bilinear interpolation, which is a lot
+     * faster than Image.SCALE_SMOOTH.
+     *
+     * @param original  The image to scale.
+     * @return          The scaled image.
+     */
+    public static BufferedImage scale(Image original) {
+        BufferedImage thumbnail = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(original, 0, 0, SIZE, SIZE, null);
+        } finally {
+            g.dispose();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Will put a thumbnail in the memory cache and throw
+     * away the least recently used ones if the cache is
+     * over its byte budget.
+     *
+     * @param url   The image URL.
+     * @param icon  The thumbnail.
+     */
+    private void remember(String url, ImageIcon icon) {
+        synchronized (memoryCache) {
+            memoryCache.put(url, icon);
+            Iterator<Map.Entry<String, ImageIcon>> eldest = memoryCache.entrySet().iterator();
+            while(memoryCache.size() * BYTES_PER_THUMBNAIL > MEMORY_BUDGET_BYTES && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Will turn an image URL into a file name
+     * for the disk cache.
+     *
+     * @param url   The image URL.
+     * @return      The file name.
+     */
+    private static String fileName(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for(byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return name.append(".png").toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode()) + ".png";
+        }
+    }
+}
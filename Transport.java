@@ -0,0 +1,170 @@
+/**
+ * This interface is how the RadioInfo program
+ * talks to Sveriges radio. The Model only fetches
+ * through a transport, so it can be swapped out for
+ * something else, like a local test server.
+ *
+ * @Author  Pontus Dahlkvist
+ * @Date    26/01 -25
+ */
+
+/**
+ * -------------------- Imports --------------------
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+/**
+ * -------------------- Transport interface --------------------
+ */
+public interface Transport {
+
+    /**
+     * Will fetch a resource with a GET request.
+     *
+     * @param url           The URL to fetch.
+     * @param validators    The validators of the copy the caller already has,
+     *                      or null. With validators the transport may answer
+     *                      "not modified" when the resource is the same.
+     * @return              The response.
+     * @throws IOException  The resource could not be fetched.
+     */
+    Response get(String url, Validators validators) throws IOException;
+
+    /**
+     * Will fetch a resource like get(url, validators), but
+     * give up when the timeout has passed, counting both
+     * the wait for the response and reading its body.
+     * Transports without deadlines of their own ignore it.
+     *
+     * @param url           The URL to fetch.
+     * @param validators    The validators of the copy the caller already has, or null.
+     * @param timeout       How long the whole fetch may take.
+     * @return              The response.
+     * @throws IOException  The resource could not be fetched in time.
+     */
+    default Response get(String url, Validators validators, Duration timeout) throws IOException {
+        return get(url, validators);
+    }
+
+    /**
+     * -------------------- Response class --------------------
+     */
+    final class Response {
+        private final InputStream body;
+        private final Validators validators;
+
+        /**
+         * Constructor.
+         *
+         * @param body          The response body, or null if not modified.
+         * @param validators    The validators of the body, or null.
+         */
+        private Response(InputStream body, Validators validators) {
+            this.body = body;
+            this.validators = validators;
+        }
+
+        /**
+         * Will create a response holding a body.
+         *
+         * @param body  The response body.
+         * @return      The response.
+         */
+        public static Response of(InputStream body) {
+            return new Response(body, null);
+        }
+
+        /**
+         * Will create a response holding a body and the
+         * validators the server sent with it.
+         *
+         * @param body          The response body.
+         * @param validators    The validators, or null if there were none.
+         * @return              The response.
+         */
+        public static Response of(InputStream body, Validators validators) {
+            return new Response(body, validators);
+        }
+
+        /**
+         * Will create a response saying that the
+         * resource has not changed.
+         *
+         * @return  The response.
+         */
+        public static Response notModified() {
+            return new Response(null, null);
+        }
+
+        /**
+         * Will check if the resource has changed
+         * since it was last fetched.
+         *
+         * @return  True if it has not changed.
+         */
+        public boolean isNotModified() {
+            return body == null;
+        }
+
+        /**
+         * Returns the response body. The caller must
+         * close it.
+         *
+         * @return  The body, or null if not modified.
+         */
+        public InputStream getBody() {
+            return body;
+        }
+
+        /**
+         * Returns the validators of the body. They should only
+         * be kept once the body has been read and parsed, so a
+         * later "not modified" always means the kept copy.
+         *
+         * @return  The validators, or null if there are none.
+         */
+        public Validators getValidators() {
+            return validators;
+        }
+    }
+
+    /**
+     * -------------------- Validators class --------------------
+     */
+    final class Validators {
+        private final String etag;
+        private final String lastModified;
+
+        /**
+         * Constructor.
+         *
+         * @param etag          The ETag header, or null.
+         * @param lastModified  The Last-Modified header, or null.
+         */
+        public Validators(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Returns the ETag header.
+         *
+         * @return  The ETag, or null.
+         */
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * Returns the Last-Modified header.
+         *
+         * @return  The date, or null.
+         */
+        public String getLastModified() {
+            return lastModified;
+        }
+    }
+}